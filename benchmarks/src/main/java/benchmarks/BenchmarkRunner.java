@@ -0,0 +1,32 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: Entry point for target/benchmarks.jar. Takes the usual JMH command line
+ *              (benchmark regexps, -p bits=2048, -f, -wi, ...), and always adds the GC
+ *              profiler, so every result comes with its allocation rate (gc.alloc.rate.norm
+ *              is bytes allocated per operation) next to its throughput.
+ *
+ *              Usage: java -jar target/benchmarks.jar [JMH options]
+ *
+ */
+
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: RSA.decrypt() against the same CRT decryption written directly on top of
+ *              BigInteger.modPow(), and against a plain c^d mod N without the CRT. The batch
+ *              benchmarks decrypt BATCH ciphertexts per operation, through RSA.decryptAll()
+ *              (SIMD lanes, since the fork gets the Vector API) and one at a time.
+ *
+ */
+
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DecryptBenchmark {
+    /* Ciphertexts per batch operation */
+    private static final int BATCH = 64;
+
+    @Param({ "1024", "2048", "3072", "4096" })
+    public int bits;
+
+    private Object key;
+    private Object context;
+    private BigInteger ciphertext;
+    private BigInteger[] ciphertexts;
+
+    /* The JDK baseline's copy of the private key */
+    private BigInteger N, d, p, q, dP, dQ, qInv;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random rand = Fixtures.random(bits);
+        BigInteger[] primes = Fixtures.rsaPrimes(bits, rand);
+
+        p = primes[0];
+        q = primes[1];
+        N = p.multiply(q);
+
+        BigInteger phi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+        d = Fixtures.PUBLIC_EXPONENT.modInverse(phi);
+        dP = d.mod(p.subtract(BigInteger.ONE));
+        dQ = d.mod(q.subtract(BigInteger.ONE));
+        qInv = q.modInverse(p);
+
+        key = Subject.newKey(p, q, Fixtures.PUBLIC_EXPONENT);
+        context = Subject.keyContext(key);
+        ciphertext = Fixtures.below(N, rand).modPow(Fixtures.PUBLIC_EXPONENT, N);
+
+        ciphertexts = new BigInteger[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            ciphertexts[i] = Fixtures.below(N, rand).modPow(Fixtures.PUBLIC_EXPONENT, N);
+
+        if (!Subject.decrypt(key, ciphertext).equals(jdkDecryptCrt()))
+            throw new IllegalStateException("RSA.decrypt() disagrees with the JDK baseline");
+    }
+
+    @Benchmark
+    public BigInteger decrypt() throws Throwable {
+        return Subject.decrypt(key, ciphertext);
+    }
+
+    @Benchmark
+    public BigInteger jdkDecryptCrt() {
+        BigInteger m1 = ciphertext.modPow(dP, p);
+        BigInteger m2 = ciphertext.modPow(dQ, q);
+        BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+        return m2.add(h.multiply(q));
+    }
+
+    @Benchmark
+    public BigInteger jdkDecryptPlain() {
+        return ciphertext.modPow(d, N);
+    }
+
+    @Benchmark
+    public BigInteger[] decryptBatch() throws Throwable {
+        return Subject.decryptAll(key, ciphertexts, context);
+    }
+
+    @Benchmark
+    public BigInteger[] jdkDecryptBatch() {
+        BigInteger[] decrypted = new BigInteger[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            BigInteger m1 = ciphertexts[i].modPow(dP, p);
+            BigInteger m2 = ciphertexts[i].modPow(dQ, q);
+            BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+            decrypted[i] = m2.add(h.multiply(q));
+        }
+        return decrypted;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: One whole round trip per operation: generate a key, encrypt a message under
+ *              it, and decrypt it again. Key generation dominates, and its time is random, so
+ *              this runs more (and longer) iterations than the other benchmarks. The JDK
+ *              baseline does the same three steps with probablePrime() and modPow().
+ *
+ */
+
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({ "1024", "2048", "3072", "4096" })
+    public int bits;
+
+    private Random rand;
+
+    @Setup
+    public void setup() {
+        rand = Fixtures.random(bits);
+    }
+
+    @Benchmark
+    public BigInteger roundTrip() throws Throwable {
+        Object key = Subject.generateKey(bits / 2);
+        BigInteger N = Subject.modulus(key);
+
+        BigInteger m = Fixtures.below(N, rand);
+        BigInteger c = Subject.encrypt(key, m, N, Fixtures.PUBLIC_EXPONENT);
+        BigInteger decrypted = Subject.decrypt(key, c);
+
+        if (!decrypted.equals(m))
+            throw new IllegalStateException("round trip failed");
+        return decrypted;
+    }
+
+    @Benchmark
+    public BigInteger jdkRoundTrip() {
+        BigInteger[] primes = Fixtures.rsaPrimes(bits, rand);
+        BigInteger N = primes[0].multiply(primes[1]);
+        BigInteger phi = primes[0].subtract(BigInteger.ONE).multiply(primes[1].subtract(BigInteger.ONE));
+        BigInteger d = Fixtures.PUBLIC_EXPONENT.modInverse(phi);
+
+        BigInteger m = Fixtures.below(N, rand);
+        BigInteger c = m.modPow(Fixtures.PUBLIC_EXPONENT, N);
+        BigInteger decrypted = c.modPow(d, N);
+
+        if (!decrypted.equals(m))
+            throw new IllegalStateException("round trip failed");
+        return decrypted;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: Inputs shared by the benchmarks. Everything here is built with the JDK's own
+ *              BigInteger routines and a fixed seed, so every run (and every code path being
+ *              compared) sees the same numbers.
+ *
+ */
+
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+final class Fixtures {
+    static final BigInteger PUBLIC_EXPONENT = BigInteger.valueOf(65537);
+
+    private Fixtures() {
+    }
+
+    static Random random(int bits) {
+        return new Random(0x5EED ^ bits);
+    }
+
+    /* A random odd modulus of exactly the given size */
+    static BigInteger oddModulus(int bits, Random rand) {
+        return new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+    }
+
+    /* A random value below N */
+    static BigInteger below(BigInteger N, Random rand) {
+        return new BigInteger(N.bitLength() - 1, rand);
+    }
+
+    /* A prime of the given size, usable as an RSA factor with e = 65537 */
+    static BigInteger rsaPrime(int bits, Random rand) {
+        while (true) {
+            BigInteger p = BigInteger.probablePrime(bits, rand);
+            if (p.subtract(BigInteger.ONE).gcd(PUBLIC_EXPONENT).equals(BigInteger.ONE))
+                return p;
+        }
+    }
+
+    /* The two primes of an RSA modulus of the given size: { p, q } */
+    static BigInteger[] rsaPrimes(int bits, Random rand) {
+        BigInteger p = rsaPrime(bits / 2, rand);
+        BigInteger q;
+        do {
+            q = rsaPrime(bits / 2, rand);
+        } while (q.equals(p));
+
+        return new BigInteger[] { p, q };
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: ModularArithmetic.extendedEuclid() and modInverse() against
+ *              BigInteger.modInverse(), inverting a random unit mod an odd modulus.
+ *
+ */
+
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InverseBenchmark {
+    @Param({ "1024", "2048", "3072", "4096" })
+    public int bits;
+
+    private BigInteger value;
+    private BigInteger modulus;
+
+    @Setup
+    public void setup() {
+        Random rand = Fixtures.random(bits);
+
+        modulus = Fixtures.oddModulus(bits, rand);
+        do {
+            value = Fixtures.below(modulus, rand);
+        } while (!value.gcd(modulus).equals(BigInteger.ONE));
+    }
+
+    @Benchmark
+    public BigInteger[] extendedEuclid() throws Throwable {
+        return Subject.extendedEuclid(value, modulus);
+    }
+
+    @Benchmark
+    public BigInteger modInverse() throws Throwable {
+        return Subject.modInverse(value, modulus);
+    }
+
+    @Benchmark
+    public BigInteger jdkModInverse() {
+        return value.modInverse(modulus);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: ModularArithmetic.modexp() against BigInteger.modPow(), for a full-size
+ *              exponent and for the usual public exponent 65537.
+ *
+ */
+
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModexpBenchmark {
+    @Param({ "1024", "2048", "3072", "4096" })
+    public int bits;
+
+    private BigInteger base;
+    private BigInteger exponent;
+    private BigInteger modulus;
+
+    @Setup
+    public void setup() {
+        Random rand = Fixtures.random(bits);
+
+        modulus = Fixtures.oddModulus(bits, rand);
+        base = Fixtures.below(modulus, rand);
+        exponent = new BigInteger(bits, rand).setBit(bits - 1);
+    }
+
+    @Benchmark
+    public BigInteger modexp() throws Throwable {
+        return Subject.modexp(base, exponent, modulus);
+    }
+
+    @Benchmark
+    public BigInteger jdkModPow() {
+        return base.modPow(exponent, modulus);
+    }
+
+    @Benchmark
+    public BigInteger modexpPublicExponent() throws Throwable {
+        return Subject.modexp(base, Fixtures.PUBLIC_EXPONENT, modulus);
+    }
+
+    @Benchmark
+    public BigInteger jdkModPowPublicExponent() {
+        return base.modPow(Fixtures.PUBLIC_EXPONENT, modulus);
+    }
+}
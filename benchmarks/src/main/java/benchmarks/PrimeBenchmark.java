@@ -0,0 +1,70 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: ModularArithmetic.isPrime() against BigInteger.isProbablePrime(), on a prime
+ *              (the expensive case, since every round has to run), and ModularArithmetic.genPrime()
+ *              against BigInteger.probablePrime(). Prime sizes are half the modulus size, as
+ *              they would be for an RSA key of that size.
+ *
+ */
+
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PrimeBenchmark {
+    /* Certainty handed to the JDK; it caps its own round count by size well below this */
+    private static final int JDK_CERTAINTY = 100;
+
+    @Param({ "1024", "2048", "3072", "4096" })
+    public int bits;
+
+    private BigInteger prime;
+    private Random rand;
+
+    @Setup
+    public void setup() {
+        rand = Fixtures.random(bits);
+        prime = BigInteger.probablePrime(bits / 2, rand);
+    }
+
+    @Benchmark
+    public boolean isPrime() throws Throwable {
+        return Subject.isPrime(prime);
+    }
+
+    @Benchmark
+    public boolean jdkIsProbablePrime() {
+        return prime.isProbablePrime(JDK_CERTAINTY);
+    }
+
+    @Benchmark
+    public BigInteger genPrime() throws Throwable {
+        return Subject.genPrime(bits / 2);
+    }
+
+    @Benchmark
+    public BigInteger jdkProbablePrime() {
+        return BigInteger.probablePrime(bits / 2, rand);
+    }
+}
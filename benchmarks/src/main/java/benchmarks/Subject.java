@@ -0,0 +1,162 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: The classes under test live in the default package, which Java code in a named
+ *              package (and JMH requires one) can't import. This class looks them up once by name
+ *              and keeps method handles to them in static finals, which the JIT treats as
+ *              constants and inlines like a direct call.
+ *
+ */
+
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+
+final class Subject {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> MODULAR_ARITHMETIC = load("ModularArithmetic");
+    private static final Class<?> RSA = load("RSA");
+    private static final Class<?> KEY_GENERATOR = load("ParallelKeyGenerator");
+    private static final Class<?> KEY_CONTEXT = load("KeyContext");
+
+    private static final MethodHandle MODEXP = findStatic(MODULAR_ARITHMETIC, "modexp",
+            MethodType.methodType(BigInteger.class, BigInteger.class, BigInteger.class, BigInteger.class));
+
+    private static final MethodHandle MOD_INVERSE = findStatic(MODULAR_ARITHMETIC, "modInverse",
+            MethodType.methodType(BigInteger.class, BigInteger.class, BigInteger.class));
+
+    private static final MethodHandle EXTENDED_EUCLID = findStatic(MODULAR_ARITHMETIC, "extendedEuclid",
+            MethodType.methodType(BigInteger[].class, BigInteger.class, BigInteger.class));
+
+    private static final MethodHandle IS_PRIME = findStatic(MODULAR_ARITHMETIC, "isPrime",
+            MethodType.methodType(boolean.class, BigInteger.class));
+
+    private static final MethodHandle GEN_PRIME = findStatic(MODULAR_ARITHMETIC, "genPrime",
+            MethodType.methodType(BigInteger.class, int.class));
+
+    /* new RSA(p, q, e), typed as returning Object */
+    private static final MethodHandle NEW_KEY;
+
+    /* rsa.encrypt(m, N, e) and rsa.decrypt(c), typed to take the key as an Object */
+    private static final MethodHandle ENCRYPT;
+    private static final MethodHandle DECRYPT;
+
+    /* rsa.decryptAll(cs, context) and new KeyContext(rsa), typed with the key and context as Objects */
+    private static final MethodHandle DECRYPT_ALL;
+    private static final MethodHandle NEW_KEY_CONTEXT;
+
+    /* rsa.N */
+    private static final MethodHandle MODULUS;
+
+    /* new ParallelKeyGenerator().generate(n), typed as returning Object */
+    private static final MethodHandle GENERATE;
+    private static final Object KEY_GENERATOR_INSTANCE;
+
+    static {
+        try {
+            NEW_KEY = LOOKUP.findConstructor(RSA,
+                    MethodType.methodType(void.class, BigInteger.class, BigInteger.class, BigInteger.class))
+                    .asType(MethodType.methodType(Object.class, BigInteger.class, BigInteger.class, BigInteger.class));
+
+            ENCRYPT = LOOKUP.findVirtual(RSA, "encrypt",
+                    MethodType.methodType(BigInteger.class, BigInteger.class, BigInteger.class, BigInteger.class))
+                    .asType(MethodType.methodType(BigInteger.class, Object.class, BigInteger.class, BigInteger.class, BigInteger.class));
+
+            DECRYPT = LOOKUP.findVirtual(RSA, "decrypt", MethodType.methodType(BigInteger.class, BigInteger.class))
+                    .asType(MethodType.methodType(BigInteger.class, Object.class, BigInteger.class));
+
+            DECRYPT_ALL = LOOKUP.findVirtual(RSA, "decryptAll", MethodType.methodType(BigInteger[].class, BigInteger[].class, KEY_CONTEXT))
+                    .asType(MethodType.methodType(BigInteger[].class, Object.class, BigInteger[].class, Object.class));
+
+            NEW_KEY_CONTEXT = LOOKUP.findConstructor(KEY_CONTEXT, MethodType.methodType(void.class, RSA))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+
+            MODULUS = LOOKUP.findGetter(RSA, "N", BigInteger.class)
+                    .asType(MethodType.methodType(BigInteger.class, Object.class));
+
+            KEY_GENERATOR_INSTANCE = KEY_GENERATOR.getConstructor().newInstance();
+            GENERATE = LOOKUP.findVirtual(KEY_GENERATOR, "generate", MethodType.methodType(RSA, int.class))
+                    .bindTo(KEY_GENERATOR_INSTANCE)
+                    .asType(MethodType.methodType(Object.class, int.class));
+        }
+        catch (ReflectiveOperationException err) {
+            throw new ExceptionInInitializerError(err);
+        }
+    }
+
+    private Subject() {
+    }
+
+    static BigInteger modexp(BigInteger a, BigInteger b, BigInteger N) throws Throwable {
+        return (BigInteger) MODEXP.invokeExact(a, b, N);
+    }
+
+    static BigInteger modInverse(BigInteger b, BigInteger N) throws Throwable {
+        return (BigInteger) MOD_INVERSE.invokeExact(b, N);
+    }
+
+    static BigInteger[] extendedEuclid(BigInteger a, BigInteger b) throws Throwable {
+        return (BigInteger[]) EXTENDED_EUCLID.invokeExact(a, b);
+    }
+
+    static boolean isPrime(BigInteger N) throws Throwable {
+        return (boolean) IS_PRIME.invokeExact(N);
+    }
+
+    static BigInteger genPrime(int n) throws Throwable {
+        return (BigInteger) GEN_PRIME.invokeExact(n);
+    }
+
+    /* Builds an RSA key from its two primes and public exponent */
+    static Object newKey(BigInteger p, BigInteger q, BigInteger e) throws Throwable {
+        return (Object) NEW_KEY.invokeExact(p, q, e);
+    }
+
+    /* Generates a fresh key with two n-bit primes, via ParallelKeyGenerator */
+    static Object generateKey(int n) throws Throwable {
+        return (Object) GENERATE.invokeExact(n);
+    }
+
+    static BigInteger encrypt(Object key, BigInteger m, BigInteger N, BigInteger e) throws Throwable {
+        return (BigInteger) ENCRYPT.invokeExact(key, m, N, e);
+    }
+
+    static BigInteger decrypt(Object key, BigInteger c) throws Throwable {
+        return (BigInteger) DECRYPT.invokeExact(key, c);
+    }
+
+    /* Builds the KeyContext for a key */
+    static Object keyContext(Object key) throws Throwable {
+        return (Object) NEW_KEY_CONTEXT.invokeExact(key);
+    }
+
+    static BigInteger[] decryptAll(Object key, BigInteger[] ciphertexts, Object context) throws Throwable {
+        return (BigInteger[]) DECRYPT_ALL.invokeExact(key, ciphertexts, context);
+    }
+
+    static BigInteger modulus(Object key) throws Throwable {
+        return (BigInteger) MODULUS.invokeExact(key);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException err) {
+            throw new ExceptionInInitializerError(err);
+        }
+    }
+
+    private static MethodHandle findStatic(Class<?> owner, String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(owner, name, type);
+        }
+        catch (ReflectiveOperationException err) {
+            throw new ExceptionInInitializerError(err);
+        }
+    }
+}
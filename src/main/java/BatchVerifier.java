@@ -0,0 +1,93 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class checks signatures (see SignatureCodec) under one public key (N, e).
+ *              The Montgomery context for N is built once, and every check runs s^e mod N down
+ *              the short exponent path, which for e = 65537 is 16 squarings and a single
+ *              multiplication. verifyAll() spreads a whole batch of checks over a fork-join
+ *              pool. A verifier is immutable and can be shared between threads.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class BatchVerifier {
+    private final BigInteger N;
+    private final BigInteger e;
+    private final Montgomery context;
+    private final ForkJoinPool pool;
+
+    /*
+     *  BatchVerifier(BigInteger, BigInteger)
+     *
+     *  ~ A verifier for the public key (N, e), running batches on the common pool
+     */
+    public BatchVerifier(BigInteger N, BigInteger e) {
+        this(N, e, ForkJoinPool.commonPool());
+    }
+
+    /*
+     *  BatchVerifier(BigInteger, BigInteger, ForkJoinPool)
+     *
+     *  ~ A verifier for the public key (N, e), running batches on the given pool
+     */
+    public BatchVerifier(BigInteger N, BigInteger e, ForkJoinPool pool) {
+        if (e.signum() <= 0)
+            throw new IllegalArgumentException("Public exponent must be positive");
+
+        this.N = N;
+        this.e = e;
+        this.context = new Montgomery(N);
+        this.pool = pool;
+    }
+
+    /* verify()
+     *
+     * ~ Returns true if signature is a valid signature of message under (N, e)
+     */
+    public boolean verify(byte[] message, BigInteger signature) {
+        if (signature.signum() <= 0 || signature.compareTo(N) >= 0)
+            return false;
+
+        BigInteger em = e.bitLength() <= RSA.SHORT_EXPONENT_BITS
+                ? context.modexpShort(signature, e.longValue())
+                : context.modexp(signature, e);
+
+        return em.equals(SignatureCodec.encode(message, N));
+    }
+
+    /* verifyAll()
+     *
+     * ~ Checks signatures.get(i) against messages.get(i) for every i, in parallel, and
+     *   returns the results in the same order
+     */
+    public boolean[] verifyAll(List<byte[]> messages, List<BigInteger> signatures) {
+        if (messages.size() != signatures.size())
+            throw new IllegalArgumentException("Need exactly one signature per message");
+
+        boolean[] valid = new boolean[messages.size()];
+
+        pool.submit(() -> IntStream.range(0, valid.length)
+                .parallel()
+                .forEach(i -> valid[i] = verify(messages.get(i), signatures.get(i))))
+            .join();
+
+        return valid;
+    }
+
+    /* allValid()
+     *
+     * ~ Returns true only if every signature in the batch checks out
+     */
+    public boolean allValid(List<byte[]> messages, List<BigInteger> signatures) {
+        for (boolean valid : verifyAll(messages, signatures)) {
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements the binary extended GCD on fixed-width, mutable int[]
+ *              limbs, for computing modular inverses. It only ever shifts, adds and subtracts,
+ *              and all of its buffers are allocated before the loop starts.
+ *
+ */
+
+
+import java.math.BigInteger;
+
+public class BinaryGcd {
+    /* Mask used to read an int limb as an unsigned value */
+    private static final long MASK = 0xFFFFFFFFL;
+
+    /* modInverse()
+     *
+     * ~ Returns a^-1 mod N, in [0, N). Throws an ArithmeticException if gcd(a, N) != 1.
+     *
+     *   Odd moduli are handled directly. For an even N (e.g. (p-1)(q-1) during key
+     *   generation) a has to be odd, and the roles are swapped: with y = N^-1 mod a,
+     *   (1 - N * y) / a is an inverse of a mod N.
+     */
+    public static BigInteger modInverse(BigInteger a, BigInteger N) {
+        if (N.signum() <= 0)
+            throw new ArithmeticException("Modulus must be positive");
+
+        if (N.equals(BigInteger.ONE))
+            return BigInteger.ZERO;
+
+        a = a.mod(N);
+
+        if (N.testBit(0))
+            return oddModInverse(a, N);
+
+        if (!a.testBit(0))
+            throw new ArithmeticException("BigInteger not invertible.");
+
+        if (a.equals(BigInteger.ONE))
+            return BigInteger.ONE;
+
+        BigInteger y = oddModInverse(N.mod(a), a);
+        return BigInteger.ONE.subtract(N.multiply(y)).divide(a).mod(N);
+    }
+
+    /*
+     * Binary extended GCD for odd N and 0 <= a < N. Keeps u * x1 = a and v * x2 = a
+     * (mod N) with (u, v) starting at (a, N), and halves / subtracts until one of u & v
+     * reaches 1.
+     */
+    private static BigInteger oddModInverse(BigInteger a, BigInteger N) {
+        if (a.signum() == 0)
+            throw new ArithmeticException("BigInteger not invertible.");
+
+        int len = (N.bitLength() + 31) >>> 5;
+
+        int[] n = Montgomery.toLimbs(N, len);
+        int[] u = Montgomery.toLimbs(a, len);
+        int[] v = n.clone();
+        int[] x1 = new int[len];
+        int[] x2 = new int[len];
+        x1[0] = 1;
+
+        while (!isOne(u) && !isOne(v)) {
+            while ((u[0] & 1) == 0) {
+                shiftRight(u, 0);
+                halve(x1, n);
+            }
+
+            while ((v[0] & 1) == 0) {
+                shiftRight(v, 0);
+                halve(x2, n);
+            }
+
+            if (compare(u, v) >= 0) {
+                subtract(u, v);
+                subtractMod(x1, x2, n);
+            }
+            else {
+                subtract(v, u);
+                subtractMod(x2, x1, n);
+            }
+
+            /* u or v hit zero: the other one is gcd(a, N), and it isn't 1 */
+            if (isZero(u) || isZero(v))
+                throw new ArithmeticException("BigInteger not invertible.");
+        }
+
+        return Montgomery.fromLimbs(isOne(u) ? x1 : x2);
+    }
+
+    /* x = x / 2 mod N for odd N, i.e. x / 2 if x is even and (x + N) / 2 otherwise */
+    private static void halve(int[] x, int[] n) {
+        int carry = 0;
+
+        if ((x[0] & 1) != 0) {
+            long c = 0;
+            for (int i = 0; i < x.length; i++) {
+                long s = (x[i] & MASK) + (n[i] & MASK) + c;
+                x[i] = (int) s;
+                c = s >>> 32;
+            }
+            carry = (int) c;
+        }
+
+        shiftRight(x, carry);
+    }
+
+    /* x = (carry * 2^(32 * len) + x) >> 1 */
+    private static void shiftRight(int[] x, int carry) {
+        for (int i = 0; i < x.length - 1; i++)
+            x[i] = (x[i] >>> 1) | (x[i + 1] << 31);
+        x[x.length - 1] = (x[x.length - 1] >>> 1) | (carry << 31);
+    }
+
+    /* x = x - y, for x >= y */
+    private static void subtract(int[] x, int[] y) {
+        long borrow = 0;
+        for (int i = 0; i < x.length; i++) {
+            long s = (x[i] & MASK) - (y[i] & MASK) - borrow;
+            x[i] = (int) s;
+            borrow = s >>> 63;
+        }
+    }
+
+    /* x = x - y mod N, for x, y in [0, N) */
+    private static void subtractMod(int[] x, int[] y, int[] n) {
+        boolean wrap = compare(x, y) < 0;
+        subtract(x, y);
+
+        if (wrap) {
+            long c = 0;
+            for (int i = 0; i < x.length; i++) {
+                long s = (x[i] & MASK) + (n[i] & MASK) + c;
+                x[i] = (int) s;
+                c = s >>> 32;
+            }
+        }
+    }
+
+    private static int compare(int[] x, int[] y) {
+        for (int i = x.length - 1; i >= 0; i--) {
+            int cmp = Integer.compareUnsigned(x[i], y[i]);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    private static boolean isOne(int[] x) {
+        if (x[0] != 1)
+            return false;
+        for (int i = 1; i < x.length; i++)
+            if (x[i] != 0)
+                return false;
+        return true;
+    }
+
+    private static boolean isZero(int[] x) {
+        for (int limb : x)
+            if (limb != 0)
+                return false;
+        return true;
+    }
+}
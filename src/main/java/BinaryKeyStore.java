@@ -0,0 +1,282 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements a compact binary key store for holding many RSA keys in
+ *              one file. Numbers are stored as length-prefixed big-endian magnitudes, so loading
+ *              a key is a byte copy rather than decimal parsing. The file is memory-mapped when
+ *              opened; only the index is read up front, and each key is decoded the first time
+ *              it is asked for.
+ *
+ *              Layout (all integers big-endian):
+ *
+ *                header   int magic ("RSAK"), int version, int key count
+ *                index    per key: short id length, UTF-8 id, long record offset
+ *                records  per key: byte field count, then per field: int length, magnitude
+ *
+ *              Fields are N, e, d, p, q, dP, dQ, qInv, then r_i, d_i, t_i for each further prime
+ *              of a multi-prime key; a length of -1 marks a missing value.
+ *
+ *              The whole file is mapped as one buffer, so a store can be at most MAX_SIZE bytes
+ *              long; write() refuses to go past that, and open() rejects anything that does.
+ *
+ */
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BinaryKeyStore implements Closeable {
+    /* "RSAK" */
+    private static final int MAGIC = 0x5253414B;
+    private static final int VERSION = 1;
+
+    /* Largest store that can be mapped as a single buffer (2 GiB - 1) */
+    public static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /* Key ID -> offset of its record */
+    private final Map<String, Long> index;
+
+    /* Keys decoded so far */
+    private final ConcurrentHashMap<String, RSA> keys = new ConcurrentHashMap<String, RSA>();
+
+    private BinaryKeyStore(FileChannel channel, MappedByteBuffer buffer, Map<String, Long> index) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.index = index;
+    }
+
+    /* open()
+     *
+     * ~ Memory-maps a key store file and reads its index. Throws an IOException if the file
+     *   isn't a key store.
+     */
+    public static BinaryKeyStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            long size = channel.size();
+            if (size > MAX_SIZE)
+                throw new IOException("Key store is larger than " + MAX_SIZE + " bytes: " + file);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC)
+                throw new IOException("Not an RSA key store: " + file);
+            if (buffer.getInt() != VERSION)
+                throw new IOException("Unsupported key store version");
+
+            int count = buffer.getInt();
+            Map<String, Long> index = new LinkedHashMap<String, Long>();
+
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(id);
+                index.put(new String(id, StandardCharsets.UTF_8), buffer.getLong());
+            }
+
+            /* Every record has to start past the index and inside the file */
+            for (long offset : index.values())
+                if (offset < buffer.position() || offset >= size)
+                    throw new IOException("Corrupt key store: record offset " + offset + " is out of range");
+
+            return new BinaryKeyStore(channel, buffer, Collections.unmodifiableMap(index));
+        }
+        catch (IOException | RuntimeException err) {
+            channel.close();
+            throw err instanceof IOException ? (IOException) err : new IOException("Corrupt key store: " + file, err);
+        }
+    }
+
+    /* Returns the IDs of every key in the store, in file order */
+    public Set<String> ids() {
+        return index.keySet();
+    }
+
+    /* Returns the number of keys in the store */
+    public int size() {
+        return index.size();
+    }
+
+    /* get()
+     *
+     * ~ Returns the key with the given ID, decoding it on first use, or null if there is none
+     */
+    public RSA get(String id) {
+        Long offset = index.get(id);
+        if (offset == null)
+            return null;
+
+        return keys.computeIfAbsent(id, ignored -> decode(offset));
+    }
+
+    /* Decodes the record at offset, from a private view of the mapped buffer */
+    private RSA decode(long offset) {
+        /* open() has checked offset against the file size, itself at most MAX_SIZE */
+        ByteBuffer record = buffer.duplicate();
+        record.position(Math.toIntExact(offset));
+
+        int count = record.get() & 0xFF;
+        BigInteger[] fields = new BigInteger[Math.max(count, 8)];
+
+        for (int i = 0; i < count; i++) {
+            int length = record.getInt();
+            if (length < 0)
+                continue;
+
+            byte[] magnitude = new byte[length];
+            record.get(magnitude);
+            fields[i] = new BigInteger(1, magnitude);
+        }
+
+        return new RSA(fields);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /* write()
+     *
+     * ~ Writes the given keys (by ID, in iteration order) out as a key store file
+     */
+    public static void write(Path file, Map<String, RSA> keys) throws IOException {
+        /* Lay out the index first, so we know where the records start */
+        int indexSize = 12;
+        byte[][] ids = new byte[keys.size()][];
+        int i = 0;
+        for (String id : keys.keySet()) {
+            ids[i] = id.getBytes(StandardCharsets.UTF_8);
+            if (ids[i].length > 0xFFFF)
+                throw new IllegalArgumentException("Key ID is too long: " + id);
+            indexSize += 2 + ids[i].length + 8;
+            i++;
+        }
+
+        byte[][] records = new byte[keys.size()][];
+        i = 0;
+        long size = indexSize;
+        for (RSA key : keys.values()) {
+            records[i] = encode(key.components());
+            size += records[i++].length;
+        }
+
+        if (size > MAX_SIZE)
+            throw new IOException("Key store would be " + size + " bytes, more than " + MAX_SIZE);
+
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer index = ByteBuffer.allocate(indexSize);
+            index.putInt(MAGIC).putInt(VERSION).putInt(keys.size());
+
+            long offset = indexSize;
+            for (i = 0; i < ids.length; i++) {
+                index.putShort((short) ids[i].length).put(ids[i]).putLong(offset);
+                offset += records[i].length;
+            }
+
+            index.flip();
+            while (index.hasRemaining())
+                out.write(index);
+
+            for (byte[] record : records) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+            }
+        }
+    }
+
+    /* Encodes one key record: field count, then each field as a length-prefixed magnitude */
+    private static byte[] encode(BigInteger[] fields) {
+        byte[][] magnitudes = new byte[fields.length][];
+        int size = 1;
+
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                magnitudes[i] = magnitude(fields[i]);
+                size += magnitudes[i].length;
+            }
+            size += 4;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.put((byte) fields.length);
+
+        for (byte[] magnitude : magnitudes) {
+            if (magnitude == null) {
+                record.putInt(-1);
+            }
+            else {
+                record.putInt(magnitude.length).put(magnitude);
+            }
+        }
+
+        return record.array();
+    }
+
+    /* Big-endian magnitude of a non-negative BigInteger, without the sign byte toByteArray() may add */
+    private static byte[] magnitude(BigInteger x) {
+        byte[] bytes = x.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] trimmed = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return bytes;
+    }
+
+    /* importTextKeys()
+     *
+     * ~ Reads a decimal key pair written by RSA(int, String, String): the private key file
+     *   (N, d, and optionally p, q, dP, dQ, qInv and the further primes' triples) and the
+     *   public key file (N, e).
+     */
+    public static RSA importTextKeys(String privateFile, String publicFile) throws IOException {
+        BigInteger[] pri = readNumbers(Paths.get(privateFile));
+        BigInteger[] pub = readNumbers(Paths.get(publicFile));
+
+        if (pri.length < 2 || pub.length < 2)
+            throw new IOException("Key files must hold at least N and an exponent");
+        if (!pri[0].equals(pub[0]))
+            throw new IOException("Private and public key files have different moduli");
+
+        if (pri.length >= 7) {
+            /* Same order as RSA.components(), which has e where the private file has nothing */
+            BigInteger[] components = new BigInteger[pri.length + 1];
+            components[0] = pri[0];
+            components[1] = pub[1];
+            System.arraycopy(pri, 1, components, 2, pri.length - 1);
+            return new RSA(components);
+        }
+
+        return new RSA(pri[0], pub[1], pri[1], null, null, null, null, null);
+    }
+
+    /* Reads every whitespace separated decimal number in a file */
+    private static BigInteger[] readNumbers(Path file) throws IOException {
+        try (Scanner sc = new Scanner(file)) {
+            List<BigInteger> numbers = new ArrayList<BigInteger>();
+            while (sc.hasNextBigInteger())
+                numbers.add(sc.nextBigInteger());
+            return numbers.toArray(new BigInteger[0]);
+        }
+    }
+}
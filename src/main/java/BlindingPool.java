@@ -0,0 +1,246 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class keeps a stock of blinding pairs for one RSA key, so decryption can
+ *              be blinded without paying for a fresh one every call. A pair is (A, B) with
+ *              A = r^e mod N and B = r^-1 mod N for a random r; decrypting c * A instead of c
+ *              gives m * r, and multiplying by B takes the r back off. Since the private key
+ *              never works on the attacker's c itself, its timing tells them nothing about d.
+ *
+ *              Pairs are refreshed the way Kocher suggests: after a pair is used, both halves
+ *              are squared, giving the pair for r^2 for the cost of two modular squarings,
+ *              and it goes back in the pool. After a fixed number of uses a pair is dropped,
+ *              and a low-priority daemon thread makes fresh ones in batches, inverting all of a
+ *              batch's r values at once with ModularArithmetic.batchModInverse().
+ *
+ *              A pair is only ever held by one thread at a time, so one pool can be shared by
+ *              any number of decrypting threads.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BlindingPool implements AutoCloseable {
+    /* Default number of pairs kept ready */
+    public static final int DEFAULT_DEPTH = 32;
+
+    /* Default number of times a pair is squared and reused before it is dropped */
+    public static final int DEFAULT_MAX_USES = 64;
+
+    /* A blinding pair: A = r^e mod N, B = r^-1 mod N, and how many times it has been used */
+    private static final class Pair {
+        final BigInteger blind;
+        final BigInteger unblind;
+        final int uses;
+
+        Pair(BigInteger blind, BigInteger unblind, int uses) {
+            this.blind = blind;
+            this.unblind = unblind;
+            this.uses = uses;
+        }
+    }
+
+    private final BigInteger N;
+    private final BigInteger e;
+    private final Montgomery nContext;
+    private final int depth;
+    private final int maxUses;
+    private final ArrayBlockingQueue<Pair> pairs;
+    private final SecureRandom random = new SecureRandom();
+    private final Thread filler;
+
+    /* The filler waits on this while the pool is full */
+    private final Object lock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /*
+     *  BlindingPool(RSA)
+     *
+     *  ~ A pool of DEFAULT_DEPTH pairs for the given key, each used up to DEFAULT_MAX_USES times
+     */
+    public BlindingPool(RSA key) {
+        this(key, DEFAULT_DEPTH, DEFAULT_MAX_USES);
+    }
+
+    /*
+     *  BlindingPool(RSA, int, int)
+     *
+     *  ~ A pool keeping depth pairs ready for the given key, each used up to maxUses times.
+     *    The key's public exponent has to be known. The background thread starts straight away.
+     */
+    public BlindingPool(RSA key, int depth, int maxUses) {
+        if (key.e == null)
+            throw new IllegalArgumentException("Blinding needs the key's public exponent");
+        if (depth < 1 || maxUses < 1)
+            throw new IllegalArgumentException("depth and maxUses must both be positive");
+
+        this.N = key.N;
+        this.e = key.e;
+        this.nContext = new Montgomery(N);
+        this.depth = depth;
+        this.maxUses = maxUses;
+        this.pairs = new ArrayBlockingQueue<Pair>(depth);
+
+        this.filler = new Thread(this::fill, "blinding-pool");
+        filler.setDaemon(true);
+        filler.setPriority(Thread.MIN_PRIORITY);
+        filler.start();
+    }
+
+    /* Returns the modulus the pool's pairs are for */
+    public BigInteger getModulus() {
+        return N;
+    }
+
+    /* decrypt()
+     *
+     * ~ Returns key.decrypt(c, context), computed on a blinded c. key has to be the key the
+     *   pool was made for.
+     */
+    public BigInteger decrypt(RSA key, BigInteger c, KeyContext context) {
+        if (!key.N.equals(N))
+            throw new IllegalArgumentException("Blinding pool belongs to a different key");
+
+        Pair pair = take();
+
+        BigInteger blinded = ModularArithmetic.modmult(c, pair.blind, N);
+        BigInteger m = ModularArithmetic.modmult(key.decrypt(blinded, context), pair.unblind, N);
+
+        release(pair);
+        return m;
+    }
+
+    /* Returns the number of pairs ready right now */
+    public int size() {
+        return pairs.size();
+    }
+
+    /* Returns the number of pairs the pool keeps ready */
+    public int capacity() {
+        return depth;
+    }
+
+    /* Returns the number of decryptions that found a pair ready */
+    public long hits() {
+        return hits.get();
+    }
+
+    /* Returns the number of decryptions that had to make their own pair */
+    public long misses() {
+        return misses.get();
+    }
+
+    /* Returns the number of fresh pairs the background thread has made so far */
+    public long generated() {
+        return generated.get();
+    }
+
+    /* Stops the background thread; pairs already in the pool are still used and refreshed */
+    public void close() {
+        running = false;
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    public String toString() {
+        return "BlindingPool[" + pairs.size() + "/" + depth + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+
+    /* Takes a pair from the pool, or makes one on the calling thread if it's empty */
+    private Pair take() {
+        Pair pair = pairs.poll();
+        if (pair != null) {
+            hits.incrementAndGet();
+            return pair;
+        }
+
+        misses.incrementAndGet();
+        return fresh(1)[0];
+    }
+
+    /* Squares a used pair and puts it back, or drops it (and wakes the filler) once it's worn out */
+    private void release(Pair pair) {
+        if (pair.uses + 1 < maxUses) {
+            Pair next = new Pair(ModularArithmetic.modmult(pair.blind, pair.blind, N),
+                    ModularArithmetic.modmult(pair.unblind, pair.unblind, N), pair.uses + 1);
+
+            if (pairs.offer(next))
+                return;
+        }
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /* Background thread: tops the pool back up whenever it falls below its depth */
+    private void fill() {
+        while (running) {
+            int room;
+
+            synchronized (lock) {
+                while ((room = depth - pairs.size()) == 0 && running) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException err) {
+                        return;
+                    }
+                }
+            }
+
+            if (!running)
+                return;
+
+            for (Pair pair : fresh(room)) {
+                generated.incrementAndGet();
+                if (!pairs.offer(pair))
+                    break;
+            }
+        }
+    }
+
+    /* Makes count fresh pairs, with a single inversion for all of them */
+    private Pair[] fresh(int count) {
+        BigInteger[] r = new BigInteger[count];
+        BigInteger[] inverses;
+
+        do {
+            for (int i = 0; i < count; i++)
+                r[i] = randomUnit();
+            inverses = ModularArithmetic.batchModInverse(r, N);
+        }
+        while (Arrays.asList(inverses).contains(null));
+
+        Pair[] fresh = new Pair[count];
+        for (int i = 0; i < count; i++) {
+            BigInteger blind = e.bitLength() <= RSA.SHORT_EXPONENT_BITS
+                    ? nContext.modexpShort(r[i], e.longValue())
+                    : nContext.modexp(r[i], e);
+            fresh[i] = new Pair(blind, inverses[i], 0);
+        }
+        return fresh;
+    }
+
+    /* A random r in [2, N) */
+    private BigInteger randomUnit() {
+        BigInteger r;
+        do {
+            r = new BigInteger(N.bitLength(), random);
+        }
+        while (r.compareTo(BigInteger.TWO) < 0 || r.compareTo(N) >= 0);
+        return r;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class works out, on the machine it's running on, the fastest way to do a
+ *              modexp at each modulus size, and steers ModularArithmetic.modexp() and the
+ *              KeyContexts built from then on accordingly. For every size it times short
+ *              trials of a full-length exponentiation with:
+ *
+ *                - the Montgomery engine (schoolbook CIOS multiplication) at every window
+ *                  width from 1 to ExponentPlan.MAX_WINDOW, and
+ *                - the JDK's BigInteger.modPow(), whose squaring goes over to Karatsuba and
+ *                  then Toom-Cook once operands are large enough,
+ *
+ *              and keeps the fastest (see CalibrationProfile). Each Montgomery trial sets up
+ *              its own context, as ModularArithmetic.modexp(a, b, N) does on every call and
+ *              modPow() does internally, so neither engine gets its setup for free. (That
+ *              slightly favours the JDK engine for a KeyContext, which keeps its Montgomery
+ *              contexts, but the setup is one division next to a full modexp.) Until a
+ *              profile is installed, every modexp uses the Montgomery engine with the usual
+ *              window sizing.
+ *
+ *              To calibrate at startup, point the rsa.calibration system property at a file:
+ *              the profile stored there is used if it was made on this JVM and machine, and
+ *              otherwise a fresh one is measured and written back, so that later starts skip
+ *              the trials.
+ *
+ */
+
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public final class Calibration {
+    /* System property naming the file to load the profile from (or store it in) at startup */
+    public static final String PROPERTY = "rsa.calibration";
+
+    /*
+     * Modulus sizes calibrated by default: the CRT halves of 1024 to 8192 bit keys, and the
+     * full moduli of the common key sizes.
+     */
+    public static final int[] DEFAULT_SIZES = { 512, 1024, 1536, 2048, 3072, 4096 };
+
+    /* Time spent timing each strategy at each size, in nanoseconds (at least MIN_RUNS runs either way) */
+    private static final long TRIAL_NANOS = 30_000_000L;
+    private static final int MIN_RUNS = 3;
+
+    /* Time spent up front getting both engines compiled before anything is timed */
+    private static final long WARMUP_NANOS = 300_000_000L;
+
+    private static volatile CalibrationProfile profile = CalibrationProfile.EMPTY;
+
+    static {
+        String file = System.getProperty(PROPERTY);
+        if (file != null && !file.isEmpty())
+            profile = loadOrRun(Paths.get(file), DEFAULT_SIZES);
+    }
+
+    private Calibration() {
+    }
+
+    /* install()
+     *
+     * ~ Makes ModularArithmetic.modexp() follow the given profile (CalibrationProfile.EMPTY
+     *   restores the defaults). KeyContexts built under the previous one are rebuilt the
+     *   next time an RSA key or a ContextCache hands them out.
+     */
+    public static void install(CalibrationProfile profile) {
+        if (profile == null)
+            throw new IllegalArgumentException("Use CalibrationProfile.EMPTY to go back to the defaults");
+        Calibration.profile = profile;
+    }
+
+    /* Returns the profile in use, for diagnostics */
+    public static CalibrationProfile current() {
+        return profile;
+    }
+
+    /* Returns the choice in use for a modulus of the given size, or null if there is no profile */
+    public static CalibrationProfile.Choice choiceFor(int bits) {
+        return profile.choiceFor(bits);
+    }
+
+    /* loadOrRun()
+     *
+     * ~ Loads the profile stored in file if there is one, made on this machine and covering
+     *   every one of sizes; otherwise measures a new one and stores it there. Either way the
+     *   profile is installed and returned. If the file can't be written, the new profile is
+     *   still kept, for this run only: it isn't measured again.
+     */
+    public static CalibrationProfile loadOrRun(Path file, int... sizes) {
+        if (Files.isRegularFile(file)) {
+            try {
+                CalibrationProfile stored = CalibrationProfile.load(file);
+                if (stored.matchesThisMachine() && stored.covers(sizes)) {
+                    install(stored);
+                    return stored;
+                }
+            }
+            catch (IOException err) {
+                /* Unreadable or malformed: calibrate over it */
+            }
+        }
+
+        CalibrationProfile fresh = run(sizes);
+        install(fresh);
+
+        try {
+            fresh.store(file);
+        }
+        catch (IOException err) {
+            /* Can't write the file: the next start calibrates again */
+        }
+
+        return fresh;
+    }
+
+    /* run()
+     *
+     * ~ Times every strategy at each of the given modulus sizes and returns the profile of the
+     *   fastest ones. Each strategy gets a few tens of milliseconds per size, so the default
+     *   sizes take several seconds in all. The profile is not installed, and the trials
+     *   aren't reported to Metrics.
+     */
+    public static CalibrationProfile run(int... sizes) {
+        return Metrics.unreported(() -> measure(sizes));
+    }
+
+    /* The trials behind run() */
+    private static CalibrationProfile measure(int... sizes) {
+        Random rand = new Random(sizes.length);
+        warmUp(rand);
+
+        Map<Integer, CalibrationProfile.Choice> choices = new TreeMap<Integer, CalibrationProfile.Choice>();
+
+        for (int bits : sizes) {
+            if (bits < 2)
+                throw new IllegalArgumentException("Modulus size must be at least 2 bits");
+
+            BigInteger N = new BigInteger(bits, rand).setBit(bits - 1).setBit(0);
+            BigInteger exponent = new BigInteger(bits, rand).setBit(bits - 1);
+            BigInteger base = new BigInteger(bits - 1, rand);
+
+            long jdk = time(() -> base.modPow(exponent, N));
+            CalibrationProfile.Choice best = new CalibrationProfile.Choice(CalibrationProfile.Engine.JDK,
+                    Montgomery.windowFor(bits), jdk);
+
+            for (int window = 1; window <= ExponentPlan.MAX_WINDOW; window++) {
+                ExponentPlan plan = new ExponentPlan(exponent, window);
+                long nanos = time(() -> new Montgomery(N).modexp(base, plan));
+
+                if (nanos < best.nanos())
+                    best = new CalibrationProfile.Choice(CalibrationProfile.Engine.MONTGOMERY, window, nanos);
+            }
+
+            choices.put(bits, best);
+        }
+
+        return new CalibrationProfile(choices);
+    }
+
+    /* Runs both engines for a while at a middling size, so the JIT has compiled them before the trials */
+    private static void warmUp(Random rand) {
+        BigInteger N = new BigInteger(1024, rand).setBit(1023).setBit(0);
+        BigInteger exponent = new BigInteger(256, rand);
+        BigInteger base = new BigInteger(1000, rand);
+        Montgomery context = new Montgomery(N);
+        ExponentPlan plan = ExponentPlan.of(exponent);
+
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) {
+            base.modPow(exponent, N);
+            context.modexp(base, plan);
+        }
+    }
+
+    /* Returns the fastest of repeated runs of trial, in nanoseconds */
+    private static long time(Runnable trial) {
+        long best = Long.MAX_VALUE;
+        long end = System.nanoTime() + TRIAL_NANOS;
+
+        for (int runs = 0; runs < MIN_RUNS || System.nanoTime() < end; runs++) {
+            long start = System.nanoTime();
+            trial.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class holds the result of a calibration run (see Calibration): for each
+ *              modulus size that was tried, which exponentiation engine came out fastest and,
+ *              for our own Montgomery engine, with which window width. Profiles are immutable
+ *              and can be stored in, and loaded back from, a small properties file:
+ *
+ *                java.version=17.0.2
+ *                os.arch=amd64
+ *                processors=8
+ *                modexp.2048=JDK,6,5300000
+ *
+ *              one modexp.<bits>=<engine>,<window>,<nanoseconds per modexp> line per size. The
+ *              JVM and machine it was measured on are recorded too, so a profile carried over
+ *              to a different one is noticed (see matchesThisMachine()) and not trusted.
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+public final class CalibrationProfile {
+    /* The ways a modexp can be run */
+    public enum Engine {
+        /* Montgomery, our schoolbook (CIOS) multiplication over int[] limbs, with a sliding window */
+        MONTGOMERY,
+
+        /* BigInteger.modPow(), which switches to Karatsuba / Toom-Cook squaring for large operands */
+        JDK
+    }
+
+    /* The fastest way found to run a modexp of one size */
+    public static final class Choice {
+        private final Engine engine;
+        private final int window;
+        private final long nanos;
+
+        public Choice(Engine engine, int window, long nanos) {
+            this.engine = engine;
+            this.window = window;
+            this.nanos = nanos;
+        }
+
+        public Engine engine() {
+            return engine;
+        }
+
+        /* Sliding window width for the Montgomery engine (still recorded for the JDK one, unused) */
+        public int window() {
+            return window;
+        }
+
+        /*
+         * Returns true if the calibrated window should be used for an exponent of exponentBits
+         * under a modulus of modulusBits: only on the Montgomery engine, and only for an
+         * exponent about as long as the modulus, like the one the trials were run with. A short
+         * exponent (e = 65537) is better served by the usual sizing.
+         */
+        public boolean windowFits(int exponentBits, int modulusBits) {
+            return engine == Engine.MONTGOMERY && 2 * exponentBits > modulusBits;
+        }
+
+        /* Time one full-length modexp took in the trials, context setup included, in nanoseconds */
+        public long nanos() {
+            return nanos;
+        }
+
+        public String toString() {
+            return engine + (engine == Engine.MONTGOMERY ? " (window " + window + ")" : "") + ", " + nanos / 1000 + "us";
+        }
+    }
+
+    /* A profile with nothing in it, under which every modexp keeps to the default engine */
+    public static final CalibrationProfile EMPTY = new CalibrationProfile(new TreeMap<Integer, Choice>(),
+            System.getProperty("java.version"), System.getProperty("os.arch"), Runtime.getRuntime().availableProcessors());
+
+    private static final String PREFIX = "modexp.";
+
+    /* Sizes in increasing order, and the choice for each */
+    private final int[] sizes;
+    private final Choice[] choices;
+
+    private final String javaVersion;
+    private final String arch;
+    private final int processors;
+
+    /*
+     *  CalibrationProfile(Map<Integer, Choice>)
+     *
+     *  ~ A profile with the given choices (keyed by modulus size in bits), measured on this machine
+     */
+    public CalibrationProfile(Map<Integer, Choice> choices) {
+        this(new TreeMap<Integer, Choice>(choices), System.getProperty("java.version"), System.getProperty("os.arch"),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    private CalibrationProfile(TreeMap<Integer, Choice> choices, String javaVersion, String arch, int processors) {
+        this.sizes = new int[choices.size()];
+        this.choices = new Choice[choices.size()];
+
+        int i = 0;
+        for (Map.Entry<Integer, Choice> entry : choices.entrySet()) {
+            sizes[i] = entry.getKey();
+            this.choices[i++] = entry.getValue();
+        }
+
+        this.javaVersion = javaVersion;
+        this.arch = arch;
+        this.processors = processors;
+    }
+
+    /* choiceFor()
+     *
+     * ~ Returns the choice for the calibrated size nearest to bits, or null if the profile is
+     *   empty. Called on every modexp, so it's a plain scan over a handful of ints.
+     */
+    public Choice choiceFor(int bits) {
+        Choice nearest = null;
+        int distance = Integer.MAX_VALUE;
+
+        for (int i = 0; i < sizes.length; i++) {
+            int d = Math.abs(sizes[i] - bits);
+            if (d < distance) {
+                distance = d;
+                nearest = choices[i];
+            }
+        }
+
+        return nearest;
+    }
+
+    /* Returns every calibrated size with its choice, in increasing order of size */
+    public Map<Integer, Choice> choices() {
+        Map<Integer, Choice> map = new TreeMap<Integer, Choice>();
+        for (int i = 0; i < sizes.length; i++)
+            map.put(sizes[i], choices[i]);
+        return Collections.unmodifiableMap(map);
+    }
+
+    /* Returns true if the profile has no sizes in it */
+    public boolean isEmpty() {
+        return sizes.length == 0;
+    }
+
+    /* Returns true if the profile covers every one of the given sizes */
+    public boolean covers(int... bits) {
+        for (int size : bits)
+            if (Arrays.binarySearch(sizes, size) < 0)
+                return false;
+        return true;
+    }
+
+    /* Returns true if the profile was measured on the same JVM version, architecture and core count */
+    public boolean matchesThisMachine() {
+        return String.valueOf(javaVersion).equals(System.getProperty("java.version"))
+                && String.valueOf(arch).equals(System.getProperty("os.arch"))
+                && processors == Runtime.getRuntime().availableProcessors();
+    }
+
+    /* store()
+     *
+     * ~ Writes the profile to file, replacing whatever was there
+     */
+    public void store(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("java.version", String.valueOf(javaVersion));
+        properties.setProperty("os.arch", String.valueOf(arch));
+        properties.setProperty("processors", Integer.toString(processors));
+
+        for (int i = 0; i < sizes.length; i++)
+            properties.setProperty(PREFIX + sizes[i], choices[i].engine + "," + choices[i].window + "," + choices[i].nanos);
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, "RSA arithmetic calibration");
+        }
+    }
+
+    /* load()
+     *
+     * ~ Reads a profile written by store(). Throws an IOException if the file is missing or
+     *   doesn't parse.
+     */
+    public static CalibrationProfile load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+
+        TreeMap<Integer, Choice> choices = new TreeMap<Integer, Choice>();
+
+        try {
+            for (String name : properties.stringPropertyNames()) {
+                if (!name.startsWith(PREFIX))
+                    continue;
+
+                String[] fields = properties.getProperty(name).split(",");
+                if (fields.length != 3)
+                    throw new IOException("Malformed calibration entry " + name);
+
+                int window = Integer.parseInt(fields[1].trim());
+                if (window < 1 || window > ExponentPlan.MAX_WINDOW)
+                    throw new IOException("Invalid window width in calibration entry " + name);
+
+                choices.put(Integer.parseInt(name.substring(PREFIX.length())),
+                        new Choice(Engine.valueOf(fields[0].trim()), window, Long.parseLong(fields[2].trim())));
+            }
+
+            return new CalibrationProfile(choices, properties.getProperty("java.version"), properties.getProperty("os.arch"),
+                    Integer.parseInt(properties.getProperty("processors", "0")));
+        }
+        catch (IllegalArgumentException err) {
+            throw new IOException("Malformed calibration file " + file, err);
+        }
+    }
+
+    public String toString() {
+        StringBuilder out = new StringBuilder("CalibrationProfile[");
+        for (int i = 0; i < sizes.length; i++)
+            out.append(i == 0 ? "" : ", ").append(sizes[i]).append("-bit=").append(choices[i]);
+        return out.append("]").toString();
+    }
+}
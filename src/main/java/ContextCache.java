@@ -0,0 +1,139 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements a bounded, least recently used cache of KeyContexts,
+ *              keyed by key ID. An entry only counts for the exact key instance it was built
+ *              from, so a context left behind by a key that has since been replaced under
+ *              the same ID is never handed out for the new one. The bound is on the total
+ *              (approximate) size of the cached contexts rather than their number, so a
+ *              cache holding 4096-bit keys doesn't use twice the memory of one holding
+ *              2048-bit keys. Hit, miss and eviction counts are kept so the cache can be
+ *              sized for a given number of tenants.
+ *
+ */
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ContextCache {
+    /* Upper bound on the total weight of the cached contexts, in bytes */
+    private final long maxWeight;
+
+    /* Access-ordered, so iteration starts at the least recently used entry */
+    private final LinkedHashMap<String, KeyContext> contexts = new LinkedHashMap<String, KeyContext>(16, 0.75f, true);
+
+    /* Everything below is guarded by this */
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /*
+     *  ContextCache(long)
+     *
+     *  ~ Creates a cache holding at most maxWeight bytes worth of contexts
+     */
+    public ContextCache(long maxWeight) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("maxWeight must be positive");
+
+        this.maxWeight = maxWeight;
+    }
+
+    /* get()
+     *
+     * ~ Returns the context for the given key, building it (outside the lock) on a miss.
+     *   If two threads miss on the same key at once, both build it and the first one to
+     *   finish wins. A cached context built from any other key (one that was registered
+     *   under id before key replaced it), or under a Calibration profile that has since been
+     *   replaced, counts as a miss, and is replaced.
+     */
+    public KeyContext get(String id, RSA key) {
+        synchronized (this) {
+            KeyContext context = contexts.get(id);
+            if (context != null && context.key() == key && context.isCurrent()) {
+                hits++;
+                return context;
+            }
+            misses++;
+        }
+
+        KeyContext built = new KeyContext(key);
+
+        synchronized (this) {
+            KeyContext existing = contexts.get(id);
+            if (existing != null && existing.key() == key && existing.isCurrent())
+                return existing;
+
+            if (existing != null)
+                weight -= existing.weight();
+
+            contexts.put(id, built);
+            weight += built.weight();
+            evict();
+            return built;
+        }
+    }
+
+    /* Drops the cached context for a key, e.g. when the key is replaced */
+    public synchronized void invalidate(String id) {
+        KeyContext removed = contexts.remove(id);
+        if (removed != null)
+            weight -= removed.weight();
+    }
+
+    /* Drops everything */
+    public synchronized void clear() {
+        contexts.clear();
+        weight = 0;
+    }
+
+    /* Evicts least recently used contexts until the cache is back within its bound */
+    private void evict() {
+        Iterator<Map.Entry<String, KeyContext>> it = contexts.entrySet().iterator();
+
+        /* Always keep the entry that was just added, even if it is bigger than the bound */
+        while (weight > maxWeight && contexts.size() > 1 && it.hasNext()) {
+            weight -= it.next().getValue().weight();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return contexts.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public long maxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /* Returns the fraction of lookups that were hits (0 if there have been none) */
+    public synchronized double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized String toString() {
+        return "ContextCache[size=" + contexts.size() + ", weight=" + weight + "/" + maxWeight
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class is a fixed exponent recoded, once, into the steps a left-to-right
+ *              sliding window exponentiation takes: which odd power a^(2i + 1) to start from,
+ *              then for every later window how many squarings come before it and which odd
+ *              power it multiplies in. Montgomery.modexp(a, plan) just replays those steps, so
+ *              an exponent used over and over (a key's e, d, dP, dQ) is never scanned bit by
+ *              bit again.
+ *
+ *              of() also picks the window width for the exponent itself rather than from its
+ *              length alone: it counts the table multiplications plus one per window for every
+ *              width and keeps the cheapest. Sparse exponents come out with no table at all;
+ *              65537 becomes 16 squarings and a single multiplication.
+ *
+ *              (Signed digits, as in NAF, would need a^-1 mod N for every new base, which costs
+ *              far more than the few multiplications it saves, so windows are kept unsigned.)
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public final class ExponentPlan {
+    /* Widest window of() will consider */
+    public static final int MAX_WINDOW = 7;
+
+    private final BigInteger exponent;
+    private final int window;
+
+    /* Index into the odd powers (a^(2i + 1)) of the first window, or -1 for a zero exponent */
+    final int first;
+
+    /* For each later window: squarings to do first, then the odd power to multiply by */
+    final int[] squarings;
+    final int[] digits;
+
+    /* Squarings after the last window (the exponent's trailing zero bits) */
+    final int trailing;
+
+    /*
+     *  ExponentPlan(BigInteger, int)
+     *
+     *  ~ Recodes a non-negative exponent with the given window width
+     */
+    public ExponentPlan(BigInteger exponent, int window) {
+        if (exponent.signum() < 0)
+            throw new ArithmeticException("Negative exponent");
+        if (window < 1 || window > MAX_WINDOW)
+            throw new IllegalArgumentException("window must be between 1 and " + MAX_WINDOW);
+
+        this.exponent = exponent;
+        this.window = window;
+
+        int[] squarings = new int[exponent.bitLength()];
+        int[] digits = new int[exponent.bitLength()];
+        int windows = 0;
+        int first = -1;
+        int pending = 0;
+
+        int i = exponent.bitLength() - 1;
+        while (i >= 0) {
+            if (!exponent.testBit(i)) {
+                pending++;
+                i--;
+                continue;
+            }
+
+            /* Same choice as Montgomery.modexp(): the longest run b[i..low] that ends in a set bit */
+            int low = Math.max(i - window + 1, 0);
+            while (!exponent.testBit(low))
+                low++;
+
+            int value = 0;
+            for (int j = i; j >= low; j--)
+                value = (value << 1) | (exponent.testBit(j) ? 1 : 0);
+
+            if (first < 0) {
+                first = value >>> 1;
+            }
+            else {
+                squarings[windows] = pending + (i - low + 1);
+                digits[windows] = value >>> 1;
+                windows++;
+            }
+
+            pending = 0;
+            i = low - 1;
+        }
+
+        this.first = first;
+        this.squarings = Arrays.copyOf(squarings, windows);
+        this.digits = Arrays.copyOf(digits, windows);
+        this.trailing = pending;
+    }
+
+    /* of()
+     *
+     * ~ Recodes exponent with whichever window width needs the fewest multiplications
+     */
+    public static ExponentPlan of(BigInteger exponent) {
+        ExponentPlan best = null;
+
+        for (int window = 1; window <= MAX_WINDOW; window++) {
+            ExponentPlan plan = new ExponentPlan(exponent, window);
+            if (best == null || plan.multiplications() < best.multiplications())
+                best = plan;
+        }
+
+        return best;
+    }
+
+    /* Returns the exponent this plan was made for */
+    public BigInteger exponent() {
+        return exponent;
+    }
+
+    /* Returns the window width, and so the number of odd powers (2^(window - 1)) to precompute */
+    public int window() {
+        return window;
+    }
+
+    /* Returns the number of multiplications a modexp with this plan does, table included */
+    public int multiplications() {
+        return tableSize() - 1 + (window > 1 ? 1 : 0) + digits.length;
+    }
+
+    /* Returns the number of squarings a modexp with this plan does, outside the table */
+    public int squarings() {
+        int total = trailing;
+        for (int s : squarings)
+            total += s;
+        return total;
+    }
+
+    /* Number of odd powers a^1, a^3, ... the plan draws on */
+    int tableSize() {
+        return 1 << (window - 1);
+    }
+
+    public String toString() {
+        return "ExponentPlan[" + exponent.bitLength() + " bits, window=" + window + ", "
+                + squarings() + " squarings, " + multiplications() + " multiplications]";
+    }
+}
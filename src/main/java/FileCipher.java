@@ -0,0 +1,188 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class streams a file through RSA block by block with NIO. The input is
+ *              read in fixed-size batches of blocks, each batch is encrypted (or decrypted)
+ *              in parallel, and the results are written out in their original order, so
+ *              memory use doesn't depend on the size of the file.
+ *
+ *              Ciphertext layout: a header (magic number, modulus size in bytes), followed by
+ *              one length-prefixed big-endian ciphertext per block. Nothing in it is
+ *              authenticated. A block cut off part way is always caught, and a damaged one
+ *              usually is, but only by its marker byte (see MessageCodec.decodeBlock()): a
+ *              damaged block decrypts to a random residue, and about 1 in 256 of those pass
+ *              and come out as garbage. Whole blocks dropped from the end go unnoticed too.
+ *              Use HybridCipher where integrity matters.
+ *
+ */
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+public class FileCipher {
+    /* "RSAF" */
+    private static final int MAGIC = 0x52534146;
+
+    /* Number of blocks read, transformed and written per batch */
+    static final int BATCH_BLOCKS = 64 * Runtime.getRuntime().availableProcessors();
+
+    /* encrypt()
+     *
+     * ~ Encrypts input into output, using encryptBlock (m -> m^e mod N) on each block.
+     *   Blocks are laid out by MessageCodec: k - 2 bytes of plaintext behind a marker byte,
+     *   where k is the size of N in bytes.
+     */
+    public static void encrypt(Path input, Path output, BigInteger N, UnaryOperator<BigInteger> encryptBlock) throws IOException {
+        int k = modulusBytes(N);
+        int plainBytes = MessageCodec.blockSize(N);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(MAGIC).putInt(k).flip();
+            writeFully(out, header);
+
+            ByteBuffer plain = ByteBuffer.allocate(BATCH_BLOCKS * plainBytes);
+            ByteBuffer cipher = ByteBuffer.allocate(BATCH_BLOCKS * (k + 5));
+            BigInteger[] blocks = new BigInteger[BATCH_BLOCKS];
+
+            while (true) {
+                plain.clear();
+                readFully(in, plain);
+                plain.flip();
+
+                if (!plain.hasRemaining())
+                    break;
+
+                /* Split the batch into marker-prefixed blocks */
+                int count = 0;
+                while (plain.hasRemaining()) {
+                    int length = Math.min(plainBytes, plain.remaining());
+                    blocks[count++] = MessageCodec.encodeBlock(plain.array(), plain.position(), length);
+                    plain.position(plain.position() + length);
+                }
+
+                transform(blocks, count, encryptBlock);
+
+                cipher.clear();
+                for (int i = 0; i < count; i++) {
+                    byte[] bytes = magnitude(blocks[i]);
+                    cipher.putInt(bytes.length).put(bytes);
+                }
+                cipher.flip();
+                writeFully(out, cipher);
+            }
+        }
+    }
+
+    /* decrypt()
+     *
+     * ~ Decrypts a file written by encrypt() into output, using decryptBlock (c -> c^d mod N)
+     *   on each block. Throws an IOException if the input isn't a ciphertext for N.
+     */
+    public static void decrypt(Path input, Path output, BigInteger N, UnaryOperator<BigInteger> decryptBlock) throws IOException {
+        int k = modulusBytes(N);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(8);
+            readFully(in, header);
+            header.flip();
+
+            if (header.remaining() < 8 || header.getInt() != MAGIC)
+                throw new IOException("Not an RSA encrypted file");
+            if (header.getInt() != k)
+                throw new IOException("File was encrypted under a different modulus size");
+
+            ByteBuffer length = ByteBuffer.allocate(4);
+            ByteBuffer block = ByteBuffer.allocate(k);
+            ByteBuffer plain = ByteBuffer.allocate(BATCH_BLOCKS * k);
+            BigInteger[] blocks = new BigInteger[BATCH_BLOCKS];
+
+            boolean done = false;
+            while (!done) {
+                /* Read up to a batch of length-prefixed ciphertexts */
+                int count = 0;
+                while (count < BATCH_BLOCKS) {
+                    length.clear();
+                    readFully(in, length);
+                    length.flip();
+
+                    if (!length.hasRemaining()) {
+                        done = true;
+                        break;
+                    }
+                    if (length.remaining() < 4)
+                        throw new EOFException("Truncated block length");
+
+                    int size = length.getInt();
+                    if (size < 1 || size > k)
+                        throw new IOException("Invalid block length " + size);
+
+                    block.clear().limit(size);
+                    readFully(in, block);
+                    if (block.hasRemaining())
+                        throw new EOFException("Truncated block");
+
+                    blocks[count++] = new BigInteger(1, block.array(), 0, size);
+                }
+
+                transform(blocks, count, decryptBlock);
+
+                plain.clear();
+                for (int i = 0; i < count; i++) {
+                    try {
+                        plain.put(MessageCodec.decodeBlock(blocks[i]));
+                    }
+                    catch (IllegalArgumentException err) {
+                        throw new IOException("Block failed to decrypt", err);
+                    }
+                }
+                plain.flip();
+                writeFully(out, plain);
+            }
+        }
+    }
+
+    /* Applies op to blocks[0..count) in parallel, keeping every result in its slot */
+    private static void transform(BigInteger[] blocks, int count, UnaryOperator<BigInteger> op) {
+        IntStream.range(0, count).parallel().forEach(i -> blocks[i] = op.apply(blocks[i]));
+    }
+
+    /* Size of N in bytes */
+    private static int modulusBytes(BigInteger N) {
+        return (N.bitLength() + 7) / 8;
+    }
+
+    /* Big-endian magnitude of a non-negative BigInteger, without the sign byte toByteArray() may add */
+    private static byte[] magnitude(BigInteger x) {
+        byte[] bytes = x.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] trimmed = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return bytes;
+    }
+
+    /* Reads until the buffer is full or the channel hits end of file */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            ;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class encrypts bulk data under an RSA public key the way it's done in
+ *              practice: RSA only wraps a fresh symmetric key, and the data itself goes through
+ *              AES-256-GCM from the JDK's own provider. So a message costs one modexp however
+ *              large it is, rather than one per modulus-sized block as with FileCipher.
+ *
+ *              The key is set up with RSA-KEM (ISO 18033-2): a random z < N is encrypted as
+ *              c = z^e mod N, and the AES key is SHA-256(z || 00000001), z padded to the size
+ *              of N. Only the holder of d can get z back out of c.
+ *
+ *              GCM can't check a message until it has seen all of it, so to stream files of
+ *              any size (and never hand out unauthenticated plaintext) the data is cut into
+ *              segments that are sealed separately. Every segment has its own nonce:
+ *
+ *                nonce = prefix (7 random bytes) || segment number (4 bytes) || last (1 byte)
+ *
+ *              which stops segments from being reordered, dropped or cut off at the end, and
+ *              the header is passed as associated data to every segment.
+ *
+ *              Ciphertext layout: magic number, modulus size k, segment size, nonce prefix,
+ *              the k byte encapsulated key c, then the segments, each one segment size bytes
+ *              of ciphertext (the last may be shorter) followed by a 16 byte tag.
+ *
+ */
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.function.UnaryOperator;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class HybridCipher {
+    /* Plaintext bytes per segment unless asked otherwise */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /* Largest segment size decrypt() accepts, so a bad header can't make it allocate gigabytes */
+    public static final int MAX_SEGMENT_SIZE = 1 << 26;
+
+    /* "RSAH" */
+    private static final int MAGIC = 0x52534148;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BYTES = 16;
+    private static final int PREFIX_BYTES = 7;
+    private static final int NONCE_BYTES = 12;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /* encrypt()
+     *
+     * ~ Encrypts everything read from in and writes the ciphertext to out, using
+     *   encryptBlock (m -> m^e mod N) once to wrap the key. Neither stream is closed.
+     */
+    public static void encrypt(InputStream in, OutputStream out, BigInteger N, UnaryOperator<BigInteger> encryptBlock) throws IOException {
+        encrypt(in, out, N, encryptBlock, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /* encrypt()
+     *
+     * ~ Same as above, with the given number of plaintext bytes per segment. Memory use is
+     *   about twice the segment size, however much data there is.
+     */
+    public static void encrypt(InputStream in, OutputStream out, BigInteger N, UnaryOperator<BigInteger> encryptBlock, int segmentSize) throws IOException {
+        checkSegmentSize(segmentSize);
+
+        Header header = Header.create(N, encryptBlock, segmentSize);
+        out.write(header.bytes);
+
+        Segments segments = new Segments(header, Cipher.ENCRYPT_MODE);
+
+        /* One byte more than a segment is read, to tell whether this is the last one */
+        byte[] plain = new byte[segmentSize + 1];
+        byte[] sealed = new byte[segmentSize + TAG_BYTES];
+        int buffered = 0;
+
+        while (true) {
+            buffered += readFully(in, plain, buffered, plain.length - buffered);
+
+            boolean last = buffered <= segmentSize;
+            int length = last ? buffered : segmentSize;
+
+            int written = segments.next(plain, 0, length, sealed, last);
+            out.write(sealed, 0, written);
+
+            if (last)
+                return;
+
+            plain[0] = plain[segmentSize];
+            buffered = 1;
+        }
+    }
+
+    /* decrypt()
+     *
+     * ~ Decrypts a stream written by encrypt() from in into out, using decryptBlock
+     *   (c -> c^d mod N) once to unwrap the key. Each segment is checked before any of it is
+     *   written; an IOException is thrown as soon as one fails, or if the stream was cut short.
+     */
+    public static void decrypt(InputStream in, OutputStream out, BigInteger N, UnaryOperator<BigInteger> decryptBlock) throws IOException {
+        Header header = Header.read(in, N);
+        Segments segments = new Segments(header.withKey(decryptBlock), Cipher.DECRYPT_MODE);
+
+        int sealedSize = header.segmentSize + TAG_BYTES;
+        byte[] sealed = new byte[sealedSize + 1];
+        byte[] plain = new byte[header.segmentSize];
+        int buffered = 0;
+
+        while (true) {
+            buffered += readFully(in, sealed, buffered, sealed.length - buffered);
+
+            boolean last = buffered <= sealedSize;
+            int length = last ? buffered : sealedSize;
+
+            if (length < TAG_BYTES)
+                throw new EOFException("Truncated segment");
+
+            try {
+                int written = segments.next(sealed, 0, length, plain, last);
+                out.write(plain, 0, written);
+            }
+            catch (IllegalArgumentException err) {
+                throw new IOException("Segment " + (segments.count - 1) + " failed to decrypt", err);
+            }
+
+            if (last)
+                return;
+
+            sealed[0] = sealed[sealedSize];
+            buffered = 1;
+        }
+    }
+
+    /* encryptedSize()
+     *
+     * ~ Returns the size of the ciphertext encrypt() makes out of plainLength bytes under
+     *   a modulus N, with the given segment size
+     */
+    public static long encryptedSize(long plainLength, BigInteger N, int segmentSize) {
+        long segments = Math.max(1, (plainLength + segmentSize - 1) / segmentSize);
+        return Header.size(modulusBytes(N)) + plainLength + segments * TAG_BYTES;
+    }
+
+    /* encrypt()
+     *
+     * ~ Encrypts the remaining bytes of plaintext into a new buffer, in the same format as
+     *   the streaming encrypt(). plaintext's position is moved to its limit.
+     */
+    public static ByteBuffer encrypt(ByteBuffer plaintext, BigInteger N, UnaryOperator<BigInteger> encryptBlock) {
+        long size = encryptedSize(plaintext.remaining(), N, DEFAULT_SEGMENT_SIZE);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too much data for one buffer; use the streaming encrypt()");
+
+        ByteBuffer ciphertext = ByteBuffer.allocate((int) size);
+        encrypt(plaintext, ciphertext, N, encryptBlock, DEFAULT_SEGMENT_SIZE);
+        return ciphertext.flip();
+    }
+
+    /* encrypt()
+     *
+     * ~ Encrypts the remaining bytes of plaintext into ciphertext, which needs room for
+     *   encryptedSize() bytes. Direct buffers are passed straight to the cipher.
+     */
+    public static void encrypt(ByteBuffer plaintext, ByteBuffer ciphertext, BigInteger N, UnaryOperator<BigInteger> encryptBlock, int segmentSize) {
+        checkSegmentSize(segmentSize);
+
+        if (ciphertext.remaining() < encryptedSize(plaintext.remaining(), N, segmentSize))
+            throw new IllegalArgumentException("Ciphertext buffer is too small");
+
+        Header header = Header.create(N, encryptBlock, segmentSize);
+        ciphertext.put(header.bytes);
+
+        Segments segments = new Segments(header, Cipher.ENCRYPT_MODE);
+
+        do {
+            boolean last = plaintext.remaining() <= segmentSize;
+            ByteBuffer segment = plaintext.duplicate();
+            segment.limit(segment.position() + (last ? plaintext.remaining() : segmentSize));
+
+            segments.next(segment, ciphertext, last);
+            plaintext.position(segment.position());
+        }
+        while (plaintext.hasRemaining());
+    }
+
+    /* decrypt()
+     *
+     * ~ Decrypts a buffer written by encrypt() into a new buffer, using decryptBlock to unwrap
+     *   the key. Throws an IllegalArgumentException if the ciphertext doesn't check out.
+     */
+    public static ByteBuffer decrypt(ByteBuffer ciphertext, BigInteger N, UnaryOperator<BigInteger> decryptBlock) {
+        Header header;
+        try {
+            header = Header.read(ciphertext, N);
+        }
+        catch (IOException err) {
+            throw new IllegalArgumentException(err.getMessage(), err);
+        }
+
+        int sealedSize = header.segmentSize + TAG_BYTES;
+        int body = ciphertext.remaining();
+
+        /* Every segment but the last is full; the last holds at least its tag */
+        int count = body / sealedSize + (body % sealedSize == 0 ? 0 : 1);
+        if (count == 0 || body - (count - 1) * sealedSize < TAG_BYTES)
+            throw new IllegalArgumentException("Truncated segment");
+
+        Segments segments = new Segments(header.withKey(decryptBlock), Cipher.DECRYPT_MODE);
+        ByteBuffer plaintext = ByteBuffer.allocate(body - count * TAG_BYTES);
+
+        for (int i = 0; i < count; i++) {
+            boolean last = i == count - 1;
+            ByteBuffer segment = ciphertext.duplicate();
+            segment.limit(segment.position() + (last ? ciphertext.remaining() : sealedSize));
+
+            segments.next(segment, plaintext, last);
+            ciphertext.position(segment.position());
+        }
+
+        return plaintext.flip();
+    }
+
+    /* The fields at the front of a ciphertext, and the AES key they stand for */
+    private static final class Header {
+        final byte[] bytes;
+        final int segmentSize;
+        final byte[] prefix;
+        final BigInteger encapsulated;
+        final int k;
+        final SecretKey key;
+
+        private Header(byte[] bytes, int k, int segmentSize, byte[] prefix, BigInteger encapsulated, SecretKey key) {
+            this.bytes = bytes;
+            this.k = k;
+            this.segmentSize = segmentSize;
+            this.prefix = prefix;
+            this.encapsulated = encapsulated;
+            this.key = key;
+        }
+
+        static int size(int k) {
+            return 12 + PREFIX_BYTES + k;
+        }
+
+        /* Picks a random z < N and nonce prefix, and lays out the header for them */
+        static Header create(BigInteger N, UnaryOperator<BigInteger> encryptBlock, int segmentSize) {
+            int k = modulusBytes(N);
+
+            BigInteger z;
+            do {
+                z = new BigInteger(N.bitLength(), RANDOM);
+            }
+            while (z.compareTo(N) >= 0);
+
+            byte[] prefix = new byte[PREFIX_BYTES];
+            RANDOM.nextBytes(prefix);
+
+            BigInteger c = encryptBlock.apply(z);
+
+            ByteBuffer bytes = ByteBuffer.allocate(size(k));
+            bytes.putInt(MAGIC).putInt(k).putInt(segmentSize).put(prefix).put(toBytes(c, k));
+
+            return new Header(bytes.array(), k, segmentSize, prefix, c, deriveKey(z, k));
+        }
+
+        /* Reads a header from in, checking it was made for a modulus of N's size */
+        static Header read(InputStream in, BigInteger N) throws IOException {
+            byte[] start = new byte[12];
+            if (readFully(in, start, 0, start.length) < start.length)
+                throw new IOException("Not a hybrid encrypted stream");
+
+            int k = checkedModulusBytes(ByteBuffer.wrap(start), N);
+            byte[] bytes = new byte[size(k)];
+            System.arraycopy(start, 0, bytes, 0, start.length);
+
+            if (readFully(in, bytes, start.length, bytes.length - start.length) < bytes.length - start.length)
+                throw new EOFException("Truncated header");
+
+            return parse(bytes, k);
+        }
+
+        /* Same as above, out of a buffer, whose position is moved past the header */
+        static Header read(ByteBuffer in, BigInteger N) throws IOException {
+            if (in.remaining() < 12)
+                throw new IOException("Not a hybrid encrypted buffer");
+
+            int k = checkedModulusBytes(in.duplicate(), N);
+            if (in.remaining() < size(k))
+                throw new EOFException("Truncated header");
+
+            byte[] bytes = new byte[size(k)];
+            in.get(bytes);
+            return parse(bytes, k);
+        }
+
+        /* Reads the magic number and modulus size, and returns the size */
+        private static int checkedModulusBytes(ByteBuffer start, BigInteger N) throws IOException {
+            if (start.getInt() != MAGIC)
+                throw new IOException("Not hybrid encrypted data");
+
+            int k = start.getInt();
+            if (k != modulusBytes(N))
+                throw new IOException("Data was encrypted under a different modulus size");
+            return k;
+        }
+
+        private static Header parse(byte[] bytes, int k) throws IOException {
+            ByteBuffer in = ByteBuffer.wrap(bytes, 8, bytes.length - 8);
+
+            int segmentSize = in.getInt();
+            if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE)
+                throw new IOException("Invalid segment size " + segmentSize);
+
+            byte[] prefix = new byte[PREFIX_BYTES];
+            in.get(prefix);
+
+            byte[] c = new byte[k];
+            in.get(c);
+
+            return new Header(bytes, k, segmentSize, prefix, new BigInteger(1, c), null);
+        }
+
+        /* Returns this header with the AES key unwrapped by decryptBlock */
+        Header withKey(UnaryOperator<BigInteger> decryptBlock) {
+            BigInteger z = decryptBlock.apply(encapsulated);
+            return new Header(bytes, k, segmentSize, prefix, encapsulated, deriveKey(z, k));
+        }
+    }
+
+    /* One direction of AES-GCM over consecutive segments, with the nonces laid out as above */
+    private static final class Segments {
+        private final Header header;
+        private final int mode;
+        private final Cipher cipher;
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        int count;
+
+        Segments(Header header, int mode) {
+            this.header = header;
+            this.mode = mode;
+            System.arraycopy(header.prefix, 0, nonce, 0, PREFIX_BYTES);
+
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            }
+            catch (GeneralSecurityException err) {
+                /* Every JDK is required to ship AES/GCM/NoPadding */
+                throw new IllegalStateException(err);
+            }
+        }
+
+        /* Seals or opens in[offset .. offset + length) into out, returning the bytes written */
+        int next(byte[] in, int offset, int length, byte[] out, boolean last) {
+            try {
+                start(last);
+                return cipher.doFinal(in, offset, length, out, 0);
+            }
+            catch (AEADBadTagException err) {
+                throw new IllegalArgumentException("Authentication failed", err);
+            }
+            catch (GeneralSecurityException err) {
+                throw new IllegalStateException(err);
+            }
+        }
+
+        /* Same as above, from the remaining bytes of in into out */
+        void next(ByteBuffer in, ByteBuffer out, boolean last) {
+            try {
+                start(last);
+                cipher.doFinal(in, out);
+            }
+            catch (AEADBadTagException err) {
+                throw new IllegalArgumentException("Segment " + (count - 1) + " failed to decrypt", err);
+            }
+            catch (GeneralSecurityException err) {
+                throw new IllegalStateException(err);
+            }
+        }
+
+        private void start(boolean last) throws GeneralSecurityException {
+            if (count == -1)
+                throw new IllegalStateException("Too many segments");
+
+            nonce[7] = (byte) (count >>> 24);
+            nonce[8] = (byte) (count >>> 16);
+            nonce[9] = (byte) (count >>> 8);
+            nonce[10] = (byte) count;
+            nonce[11] = (byte) (last ? 1 : 0);
+            count++;
+
+            cipher.init(mode, header.key, new GCMParameterSpec(TAG_BYTES * 8, nonce));
+            cipher.updateAAD(header.bytes);
+        }
+    }
+
+    /* KDF2 with SHA-256, for one block of output: SHA-256(z || 00000001) */
+    private static SecretKey deriveKey(BigInteger z, int k) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(toBytes(z, k));
+            digest.update(new byte[] { 0, 0, 0, 1 });
+            return new SecretKeySpec(digest.digest(), "AES");
+        }
+        catch (GeneralSecurityException err) {
+            throw new IllegalStateException(err);
+        }
+    }
+
+    private static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE)
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+    }
+
+    /* Size of N in bytes */
+    private static int modulusBytes(BigInteger N) {
+        return (N.bitLength() + 7) / 8;
+    }
+
+    /* x as exactly k big-endian bytes */
+    private static byte[] toBytes(BigInteger x, int k) {
+        byte[] bytes = x.toByteArray();
+        byte[] padded = new byte[k];
+        int length = Math.min(bytes.length, k);
+        System.arraycopy(bytes, bytes.length - length, padded, k - length, length);
+        return padded;
+    }
+
+    /* Reads until length bytes are in or the stream ends, and returns how many were read */
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+}
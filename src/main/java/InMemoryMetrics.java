@@ -0,0 +1,161 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class is a MetricsRegistry that keeps everything in memory: a count, total
+ *              time and latency histogram for modexp calls (per modulus size), key generations,
+ *              encryptions and decryptions, plus counts of prime candidates tested and rejected.
+ *              Counters are LongAdders, so reporting from many threads doesn't contend.
+ *
+ *              Histograms have power-of-two buckets: bucket i counts durations in
+ *              [2^i, 2^(i+1)) nanoseconds.
+ *
+ */
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InMemoryMetrics implements MetricsRegistry {
+    /* Count, total time and histogram of one kind of timed operation */
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[64];
+
+        Timer() {
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))].increment();
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        /* Returns the mean duration in nanoseconds, or 0 if nothing was recorded */
+        public double meanNanos() {
+            long n = count();
+            return n == 0 ? 0.0 : (double) totalNanos() / n;
+        }
+
+        /* Returns the number of durations in [2^i, 2^(i+1)) nanoseconds */
+        public long bucket(int i) {
+            return buckets[i].sum();
+        }
+
+        /* percentile()
+         *
+         * ~ Returns an upper bound (the top of its bucket) on the given percentile, e.g. 99.0
+         */
+        public long percentile(double percentile) {
+            long n = count();
+            if (n == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(n * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank)
+                    return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public String toString() {
+            return "count=" + count() + ", mean=" + Math.round(meanNanos()) + "ns, p50<=" + percentile(50)
+                    + "ns, p99<=" + percentile(99) + "ns";
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Timer> modexp = new ConcurrentHashMap<Integer, Timer>();
+    private final Timer keyGeneration = new Timer();
+    private final Timer encrypt = new Timer();
+    private final Timer decrypt = new Timer();
+
+    private final LongAdder keyGenerationAttempts = new LongAdder();
+    private final LongAdder primeCandidates = new LongAdder();
+    private final LongAdder primeRejections = new LongAdder();
+
+    public void modexp(int bits, long nanos) {
+        modexp.computeIfAbsent(bits, ignored -> new Timer()).record(nanos);
+    }
+
+    public void primeCandidate(int bits, boolean prime) {
+        primeCandidates.increment();
+        if (!prime)
+            primeRejections.increment();
+    }
+
+    public void keyGeneration(int bits, int attempts, long nanos) {
+        keyGenerationAttempts.add(attempts);
+        keyGeneration.record(nanos);
+    }
+
+    public void encrypt(int bits, long nanos) {
+        encrypt.record(nanos);
+    }
+
+    public void decrypt(int bits, long nanos) {
+        decrypt.record(nanos);
+    }
+
+    /* Returns the modexp timers by modulus size, smallest first */
+    public Map<Integer, Timer> modexpByBits() {
+        return new TreeMap<Integer, Timer>(modexp);
+    }
+
+    /* Returns the total number of modexp calls, across all sizes */
+    public long modexpCount() {
+        long total = 0;
+        for (Timer timer : modexp.values())
+            total += timer.count();
+        return total;
+    }
+
+    public Timer keyGeneration() {
+        return keyGeneration;
+    }
+
+    public long keyGenerationAttempts() {
+        return keyGenerationAttempts.sum();
+    }
+
+    public Timer encrypt() {
+        return encrypt;
+    }
+
+    public Timer decrypt() {
+        return decrypt;
+    }
+
+    public long primeCandidates() {
+        return primeCandidates.sum();
+    }
+
+    public long primeRejections() {
+        return primeRejections.sum();
+    }
+
+    public String toString() {
+        StringBuilder out = new StringBuilder("InMemoryMetrics\n");
+        for (Map.Entry<Integer, Timer> entry : modexpByBits().entrySet())
+            out.append("  modexp[").append(entry.getKey()).append(" bits]: ").append(entry.getValue()).append("\n");
+        out.append("  primes: candidates=").append(primeCandidates()).append(", rejected=").append(primeRejections()).append("\n");
+        out.append("  keygen: ").append(keyGeneration).append(", attempts=").append(keyGenerationAttempts()).append("\n");
+        out.append("  encrypt: ").append(encrypt).append("\n");
+        out.append("  decrypt: ").append(decrypt).append("\n");
+        return out.toString();
+    }
+}
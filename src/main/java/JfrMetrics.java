@@ -0,0 +1,135 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class is a MetricsRegistry that turns every report into a custom Java
+ *              Flight Recorder event, under the "RSA" category. Events that the running
+ *              recording hasn't enabled are dropped right away, so this is cheap to leave
+ *              installed. For example:
+ *
+ *                Metrics.install(new JfrMetrics());
+ *                java -XX:StartFlightRecording:filename=rsa.jfr ...
+ *                jfr print --events rsa.Modexp rsa.jfr
+ *
+ *              Prime candidate events are off by default (there can be thousands per key);
+ *              enable rsa.PrimeCandidate in the recording settings to get them.
+ *
+ */
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class JfrMetrics implements MetricsRegistry {
+    @Name("rsa.Modexp")
+    @Label("Modular Exponentiation")
+    @Category("RSA")
+    @StackTrace(false)
+    static final class ModexpEvent extends Event {
+        @Label("Modulus Size")
+        @DataAmount(DataAmount.BITS)
+        int bits;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("rsa.PrimeCandidate")
+    @Label("Prime Candidate")
+    @Category("RSA")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class PrimeCandidateEvent extends Event {
+        @Label("Size")
+        @DataAmount(DataAmount.BITS)
+        int bits;
+
+        @Label("Prime")
+        boolean prime;
+    }
+
+    @Name("rsa.KeyGeneration")
+    @Label("Key Generation")
+    @Category("RSA")
+    static final class KeyGenerationEvent extends Event {
+        @Label("Modulus Size")
+        @DataAmount(DataAmount.BITS)
+        int bits;
+
+        @Label("Attempts")
+        int attempts;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("rsa.Operation")
+    @Label("RSA Operation")
+    @Category("RSA")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Modulus Size")
+        @DataAmount(DataAmount.BITS)
+        int bits;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    public void modexp(int bits, long nanos) {
+        ModexpEvent event = new ModexpEvent();
+        if (event.shouldCommit()) {
+            event.bits = bits;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    public void primeCandidate(int bits, boolean prime) {
+        PrimeCandidateEvent event = new PrimeCandidateEvent();
+        if (event.shouldCommit()) {
+            event.bits = bits;
+            event.prime = prime;
+            event.commit();
+        }
+    }
+
+    public void keyGeneration(int bits, int attempts, long nanos) {
+        KeyGenerationEvent event = new KeyGenerationEvent();
+        if (event.shouldCommit()) {
+            event.bits = bits;
+            event.attempts = attempts;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    public void encrypt(int bits, long nanos) {
+        operation("encrypt", bits, nanos);
+    }
+
+    public void decrypt(int bits, long nanos) {
+        operation("decrypt", bits, nanos);
+    }
+
+    private void operation(String operation, int bits, long nanos) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.bits = bits;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+}
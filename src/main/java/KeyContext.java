@@ -0,0 +1,183 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class holds the precomputed arithmetic state for one RSA key: for each of
+ *              its exponents (e, and d or its CRT parts dP, dQ and those of any further primes
+ *              of a multi-prime key), the exponent recoded once for modexp (see ExponentPlan)
+ *              together with the Montgomery context for the modulus it is used under
+ *              (reduction constants, R^2 mod m). It is immutable, so one instance can be used
+ *              by any number of threads at once.
+ *
+ *              Like ModularArithmetic.modexp(), it follows the Calibration profile installed
+ *              when it was built: an exponent whose modulus size calibrated fastest on the JDK
+ *              engine is run on BigInteger.modPow(), and a full-length one on the Montgomery
+ *              engine is recoded at the calibrated window width. Once another profile is
+ *              installed the context is out of date (see isCurrent()), and RSA and
+ *              ContextCache build a new one.
+ *
+ */
+
+
+import java.math.BigInteger;
+
+public class KeyContext {
+    /* One of the key's exponents, recoded, with the context for the modulus it is used under */
+    public static final class Exponent {
+        private final Montgomery context;
+        private final ExponentPlan plan;
+
+        /* True if calibration found BigInteger.modPow() faster for this modulus size */
+        private final boolean jdk;
+
+        Exponent(Montgomery context, BigInteger exponent, CalibrationProfile profile) {
+            int bits = context.getModulus().bitLength();
+            CalibrationProfile.Choice choice = profile.choiceFor(bits);
+
+            this.context = context;
+            this.jdk = choice != null && choice.engine() == CalibrationProfile.Engine.JDK;
+            this.plan = choice != null && choice.windowFits(exponent.bitLength(), bits)
+                    ? new ExponentPlan(exponent, choice.window()) : ExponentPlan.of(exponent);
+        }
+
+        public Montgomery context() {
+            return context;
+        }
+
+        public ExponentPlan plan() {
+            return plan;
+        }
+
+        /* Returns the engine this exponent's modexps run on */
+        public CalibrationProfile.Engine engine() {
+            return jdk ? CalibrationProfile.Engine.JDK : CalibrationProfile.Engine.MONTGOMERY;
+        }
+
+        /* Returns a^exponent mod m */
+        public BigInteger modexp(BigInteger a) {
+            if (jdk)
+                return ModularArithmetic.jdkModexp(a, plan.exponent(), context.getModulus());
+            return context.modexp(a, plan);
+        }
+
+        /*
+         * Returns base^exponent mod m for every base, side by side (see MontgomeryBatch). The
+         * calibration only timed single modexps, so where it picked the JDK engine the bases
+         * go through modPow() one by one, unless the batch engine has SIMD lanes to run them
+         * on at once.
+         */
+        public BigInteger[] modexpAll(BigInteger[] bases) {
+            if (jdk && !MontgomeryBatch.isVectorized()) {
+                BigInteger[] results = new BigInteger[bases.length];
+                for (int i = 0; i < bases.length; i++)
+                    results[i] = modexp(bases[i]);
+                return results;
+            }
+            return MontgomeryBatch.modexp(bases, plan, context);
+        }
+
+        /* Rough size of the plan in bytes (the context may be shared, so is counted apart) */
+        long weight() {
+            return 16 + 8L * plan.digits.length;
+        }
+    }
+
+    /* The key this context was built for; it is only valid with that instance */
+    private final RSA key;
+
+    /* The Calibration profile the plans were made under */
+    private final CalibrationProfile profile;
+
+    /* e and d under N (null where the key doesn't have them; d only without CRT data) */
+    private final Exponent e;
+    private final Exponent d;
+
+    /* dP under p and dQ under q (null without CRT data) */
+    private final Exponent dP;
+    private final Exponent dQ;
+
+    /* d_i under r_i for the third prime onwards (empty for a two-prime key) */
+    private final Exponent[] others;
+
+    /* Rough size of this context in bytes, used by ContextCache to bound its memory */
+    private final long weight;
+
+    /*
+     *  KeyContext(RSA)
+     *
+     *  ~ Does all of the per-key setup for the given key
+     */
+    public KeyContext(RSA key) {
+        BigInteger[] components = key.components();
+        BigInteger N = components[0], e = components[1], d = components[2];
+        BigInteger p = components[3], q = components[4], dP = components[5], dQ = components[6];
+
+        this.key = key;
+        this.profile = Calibration.current();
+
+        Montgomery nContext = new Montgomery(N);
+        this.e = e == null ? null : new Exponent(nContext, e, profile);
+        this.d = p == null && d != null ? new Exponent(nContext, d, profile) : null;
+        this.dP = p == null ? null : new Exponent(new Montgomery(p), dP, profile);
+        this.dQ = p == null ? null : new Exponent(new Montgomery(q), dQ, profile);
+
+        /* Components past the first eight come in (r_i, d_i, t_i) triples */
+        this.others = new Exponent[(components.length - 8) / 3];
+        for (int i = 0; i < others.length; i++)
+            others[i] = new Exponent(new Montgomery(components[8 + 3 * i]), components[9 + 3 * i], profile);
+
+        /* Each Montgomery context holds its modulus, R^2 mod m and the BigInteger itself */
+        long weight = 64 + 12L * nContext.limbs();
+        for (Exponent exponent : new Exponent[] { this.e, this.d, this.dP, this.dQ })
+            weight += exponent == null ? 0 : exponent.weight();
+        for (Exponent exponent : new Exponent[] { this.dP, this.dQ })
+            weight += exponent == null ? 0 : 12L * exponent.context().limbs();
+        for (Exponent other : others)
+            weight += other.weight() + 12L * other.context().limbs();
+        this.weight = weight;
+    }
+
+    /* Returns the key this context was built for */
+    public RSA key() {
+        return key;
+    }
+
+    /* Returns the Calibration profile this context was built under */
+    public CalibrationProfile profile() {
+        return profile;
+    }
+
+    /* Returns true if that profile is still the one installed */
+    public boolean isCurrent() {
+        return profile == Calibration.current();
+    }
+
+    /* Returns the public exponent under N, or null if the key has none */
+    public Exponent e() {
+        return e;
+    }
+
+    /* Returns the private exponent under N, for a key without CRT data (null otherwise) */
+    public Exponent d() {
+        return d;
+    }
+
+    /* Returns dP under p, or null without CRT data */
+    public Exponent dP() {
+        return dP;
+    }
+
+    /* Returns dQ under q, or null without CRT data */
+    public Exponent dQ() {
+        return dQ;
+    }
+
+    /* Returns d_i under r_i for the (i + 3)th prime of a multi-prime key */
+    public Exponent other(int i) {
+        return others[i];
+    }
+
+    /* Returns the approximate size of this context in bytes */
+    public long weight() {
+        return weight;
+    }
+}
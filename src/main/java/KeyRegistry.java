@@ -0,0 +1,113 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements a thread-safe registry of RSA keys, looked up by ID.
+ *              Keys can be registered directly or loaded on demand (e.g. from a
+ *              BinaryKeyStore), and their precomputed arithmetic state is kept in a bounded
+ *              ContextCache, so a process can serve many more keys than it keeps warm.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class KeyRegistry {
+    /* Default bound on the context cache: 64 MB */
+    public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+    private final ConcurrentHashMap<String, RSA> keys = new ConcurrentHashMap<String, RSA>();
+
+    /* Called for IDs that haven't been registered; may return null */
+    private final Function<String, RSA> loader;
+
+    private final ContextCache cache;
+
+    /*
+     *  KeyRegistry()
+     *
+     *  ~ An empty registry with the default cache size
+     */
+    public KeyRegistry() {
+        this(id -> null, DEFAULT_CACHE_BYTES);
+    }
+
+    /*
+     *  KeyRegistry(Function<String, RSA>, long)
+     *
+     *  ~ A registry that falls back to loader for unknown IDs (e.g. keyStore::get), with a
+     *    context cache bounded to maxCacheBytes.
+     */
+    public KeyRegistry(Function<String, RSA> loader, long maxCacheBytes) {
+        this.loader = loader;
+        this.cache = new ContextCache(maxCacheBytes);
+    }
+
+    /* Adds (or replaces) the key with the given ID */
+    public void register(String id, RSA key) {
+        keys.put(id, key);
+        cache.invalidate(id);
+    }
+
+    /* Removes the key with the given ID, returning it (or null) */
+    public RSA remove(String id) {
+        RSA key = keys.remove(id);
+        cache.invalidate(id);
+        return key;
+    }
+
+    /* get()
+     *
+     * ~ Returns the key with the given ID, asking the loader the first time an unregistered
+     *   ID is seen. Throws an IllegalArgumentException if nobody knows it.
+     */
+    public RSA get(String id) {
+        RSA key = keys.get(id);
+        if (key == null) {
+            RSA loaded = loader.apply(id);
+            if (loaded == null)
+                throw new IllegalArgumentException("Unknown key: " + id);
+            key = keys.computeIfAbsent(id, ignored -> loaded);
+        }
+        return key;
+    }
+
+    /* Returns the IDs of the keys registered or loaded so far */
+    public Set<String> ids() {
+        return Collections.unmodifiableSet(keys.keySet());
+    }
+
+    /* Returns the precomputed state for the given key, from the cache where possible */
+    public KeyContext context(String id) {
+        return cache.get(id, get(id));
+    }
+
+    /*
+     * Returns the precomputed state for key, registered under id. Callers that go on to use
+     * key with the context fetch key once and pass it here, so that a replacement of the key
+     * in between can't pair one key with the other's context.
+     */
+    KeyContext context(String id, RSA key) {
+        return cache.get(id, key);
+    }
+
+    /* Returns the context cache, for its statistics */
+    public ContextCache cache() {
+        return cache;
+    }
+
+    /* Encrypts m under the public key of the given key */
+    public BigInteger encrypt(String id, BigInteger m) {
+        RSA key = get(id);
+        return key.encrypt(m, context(id, key));
+    }
+
+    /* Decrypts c with the private key of the given key */
+    public BigInteger decrypt(String id, BigInteger c) {
+        RSA key = get(id);
+        return key.decrypt(c, context(id, key));
+    }
+}
@@ -1,5 +1,3 @@
-import com.sun.org.apache.xpath.internal.operations.Mod;
-
 import java.io.IOException;
 import java.math.BigInteger;
 
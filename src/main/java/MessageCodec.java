@@ -0,0 +1,175 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class converts messages to and from the integers RSA works on. Text is
+ *              encoded as UTF-8 and the bytes are turned directly into BigInteger magnitudes,
+ *              split into blocks that fit below the modulus. The original decimal padding
+ *              scheme (three digits per character) is kept as a legacy mode.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class MessageCodec {
+    /*
+     * Every block is prefixed with this byte before it becomes a BigInteger, so that leading
+     * zero bytes survive the round trip.
+     */
+    private static final byte MARKER = 0x01;
+
+    /* blockSize()
+     *
+     * ~ Number of message bytes per block for modulus N: k - 2, where k is the size of N in
+     *   bytes. With the marker byte in front, a full block is still below N.
+     */
+    public static int blockSize(BigInteger N) {
+        int size = (N.bitLength() + 7) / 8 - 2;
+        if (size < 1)
+            throw new IllegalArgumentException("Modulus is too small to hold a message block");
+        return size;
+    }
+
+    /* encode()
+     *
+     * ~ Encodes any text as UTF-8 and splits it into blocks for modulus N
+     */
+    public static BigInteger[] encode(String message, BigInteger N) {
+        return encode(message.getBytes(StandardCharsets.UTF_8), N);
+    }
+
+    /* encode()
+     *
+     * ~ Splits raw bytes into blocks for modulus N. An empty message still gives one block.
+     */
+    public static BigInteger[] encode(byte[] message, BigInteger N) {
+        int size = blockSize(N);
+        int count = Math.max(1, (message.length + size - 1) / size);
+        BigInteger[] blocks = new BigInteger[count];
+
+        for (int i = 0; i < count; i++) {
+            int offset = i * size;
+            blocks[i] = encodeBlock(message, offset, Math.min(size, message.length - offset));
+        }
+
+        return blocks;
+    }
+
+    /* decode()
+     *
+     * ~ Reassembles blocks from encode(String, BigInteger) back into text. Throws an
+     *   IllegalArgumentException if a block is malformed or the bytes aren't valid UTF-8.
+     */
+    public static String decode(BigInteger[] blocks) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(decodeBytes(blocks)))
+                    .toString();
+        }
+        catch (CharacterCodingException err) {
+            throw new IllegalArgumentException("Message is not valid UTF-8", err);
+        }
+    }
+
+    /* decodeBytes()
+     *
+     * ~ Reassembles blocks from encode(byte[], BigInteger) back into the original bytes
+     */
+    public static byte[] decodeBytes(BigInteger[] blocks) {
+        byte[][] parts = new byte[blocks.length][];
+        int total = 0;
+
+        for (int i = 0; i < blocks.length; i++) {
+            parts[i] = decodeBlock(blocks[i]);
+            total += parts[i].length;
+        }
+
+        byte[] message = new byte[total];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, message, offset, part.length);
+            offset += part.length;
+        }
+
+        return message;
+    }
+
+    /* encodeBlock()
+     *
+     * ~ Turns bytes[offset, offset + length) into a single block: 0x01 || bytes
+     */
+    public static BigInteger encodeBlock(byte[] bytes, int offset, int length) {
+        byte[] block = new byte[length + 1];
+        block[0] = MARKER;
+        System.arraycopy(bytes, offset, block, 1, length);
+        return new BigInteger(1, block);
+    }
+
+    /* decodeBlock()
+     *
+     * ~ Recovers the bytes of a single block, throwing an IllegalArgumentException if it
+     *   doesn't start with the marker byte.
+     */
+    public static byte[] decodeBlock(BigInteger block) {
+        byte[] bytes = block.toByteArray();
+
+        if (block.signum() <= 0 || bytes[0] != MARKER)
+            throw new IllegalArgumentException("Malformed message block");
+
+        return Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+
+    /* legacyEncode()
+     *
+     * ~ The original decimal padding scheme (via @Dr.Pauca): every character becomes its
+     *   three digit character code, and the digits are read as one decimal number. Only
+     *   characters below 1000 can be represented.
+     */
+    public static BigInteger legacyEncode(String message) {
+        StringBuilder intMessage = new StringBuilder(3 * message.length());
+
+        for (int i = 0; i < message.length(); i++) {
+            int c = message.charAt(i);
+            if (c > 999)
+                throw new IllegalArgumentException("Character " + c + " can't be encoded in the legacy scheme");
+
+            intMessage.append((char) ('0' + c / 100))
+                      .append((char) ('0' + c / 10 % 10))
+                      .append((char) ('0' + c % 10));
+        }
+
+        return new BigInteger(intMessage.toString());
+    }
+
+    /* legacyDecode()
+     *
+     * ~ Reverses legacyEncode(). Throws an IllegalArgumentException on input that couldn't
+     *   have come from it.
+     */
+    public static String legacyDecode(BigInteger msg) {
+        String encodedMessage = msg.toString();
+
+        if (msg.signum() < 0 || encodedMessage.length() % 3 == 1)
+            throw new IllegalArgumentException("error in decryption");
+
+        /* The first character may have lost its leading zero */
+        int offset = encodedMessage.length() % 3 == 2 ? -1 : 0;
+
+        StringBuilder decryptedMessage = new StringBuilder((encodedMessage.length() + 2) / 3);
+        for (int i = offset; i < encodedMessage.length(); i += 3) {
+            int a = 0;
+            for (int j = i; j < i + 3; j++)
+                a = 10 * a + (j < 0 ? 0 : encodedMessage.charAt(j) - '0');
+            decryptedMessage.append((char) a);
+        }
+
+        return decryptedMessage.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class holds the installed MetricsRegistry and the helpers the hot paths
+ *              report through. Until a registry is installed every helper comes down to one
+ *              field read and a compare: start() hands out 0 instead of reading the clock, and
+ *              the reporting calls return straight away when given that 0. Work done inside
+ *              unreported() (Calibration's trials) is left out the same way.
+ *
+ *                long start = Metrics.start();
+ *                ...
+ *                Metrics.modexp(N.bitLength(), start);
+ *
+ */
+
+
+import java.util.function.Supplier;
+
+public final class Metrics {
+    private static volatile MetricsRegistry registry = MetricsRegistry.NOOP;
+
+    /* Set on a thread while it runs work that isn't to be reported (see unreported()) */
+    private static final ThreadLocal<Boolean> MUTED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private Metrics() {
+    }
+
+    /* install()
+     *
+     * ~ Starts reporting to the given registry (MetricsRegistry.NOOP turns reporting off)
+     */
+    public static void install(MetricsRegistry registry) {
+        if (registry == null)
+            throw new IllegalArgumentException("Use MetricsRegistry.NOOP to turn metrics off");
+        Metrics.registry = registry;
+    }
+
+    /* Returns the registry being reported to */
+    public static MetricsRegistry registry() {
+        return registry;
+    }
+
+    /* Returns true if a registry other than the no-op one is installed */
+    public static boolean enabled() {
+        return registry != MetricsRegistry.NOOP;
+    }
+
+    /* unreported()
+     *
+     * ~ Runs work on the calling thread without reporting the operations it times, so that
+     *   internal measurements don't end up in the installed registry's histograms
+     */
+    static <T> T unreported(Supplier<T> work) {
+        Boolean muted = MUTED.get();
+        MUTED.set(Boolean.TRUE);
+        try {
+            return work.get();
+        }
+        finally {
+            MUTED.set(muted);
+        }
+    }
+
+    /* Returns the start time of an operation to report, or 0 if nothing is listening */
+    static long start() {
+        return registry == MetricsRegistry.NOOP || MUTED.get() ? 0 : System.nanoTime();
+    }
+
+    static void modexp(int bits, long start) {
+        if (start != 0)
+            registry.modexp(bits, System.nanoTime() - start);
+    }
+
+    static void primeCandidate(int bits, boolean prime) {
+        MetricsRegistry current = registry;
+        if (current != MetricsRegistry.NOOP)
+            current.primeCandidate(bits, prime);
+    }
+
+    static void keyGeneration(int bits, int attempts, long start) {
+        if (start != 0)
+            registry.keyGeneration(bits, attempts, System.nanoTime() - start);
+    }
+
+    static void encrypt(int bits, long start) {
+        if (start != 0)
+            registry.encrypt(bits, System.nanoTime() - start);
+    }
+
+    static void decrypt(int bits, long start) {
+        if (start != 0)
+            registry.decrypt(bits, System.nanoTime() - start);
+    }
+
+    /* Reports a batch of count decryptions as count decryptions of the average time */
+    static void decrypt(int bits, int count, long start) {
+        if (start == 0 || count == 0)
+            return;
+
+        long each = (System.nanoTime() - start) / count;
+        MetricsRegistry current = registry;
+        for (int i = 0; i < count; i++)
+            current.decrypt(bits, each);
+    }
+}
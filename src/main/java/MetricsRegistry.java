@@ -0,0 +1,76 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This interface is where the arithmetic and RSA code report what they are doing.
+ *              Install an implementation with Metrics.install(): InMemoryMetrics keeps counters
+ *              and latency histograms, JfrMetrics turns every report into a Flight Recorder
+ *              event, and anything else (a bridge to an existing metrics library, say) only
+ *              has to override the methods it cares about. Implementations are called from
+ *              many threads at once and must be thread safe.
+ *
+ *              All durations are in nanoseconds, and bits is always the size of the modulus
+ *              (or of the prime) involved.
+ *
+ */
+
+
+public interface MetricsRegistry {
+    /* The registry installed until something else is: reports nothing, costs nothing */
+    MetricsRegistry NOOP = new MetricsRegistry() {
+    };
+
+    /* One modular exponentiation mod a bits-bit modulus */
+    default void modexp(int bits, long nanos) {
+    }
+
+    /* One candidate given the full primality test: prime is false when it was rejected */
+    default void primeCandidate(int bits, boolean prime) {
+    }
+
+    /* One finished key generation, and how many rounds of prime drawing it took */
+    default void keyGeneration(int bits, int attempts, long nanos) {
+    }
+
+    /* One public key operation (encryption, or checking a signature) */
+    default void encrypt(int bits, long nanos) {
+    }
+
+    /* One private key operation (decryption, or signing) */
+    default void decrypt(int bits, long nanos) {
+    }
+
+    /* andThen()
+     *
+     * ~ Returns a registry that reports everything to this one, then to next
+     */
+    default MetricsRegistry andThen(MetricsRegistry next) {
+        MetricsRegistry first = this;
+
+        return new MetricsRegistry() {
+            public void modexp(int bits, long nanos) {
+                first.modexp(bits, nanos);
+                next.modexp(bits, nanos);
+            }
+
+            public void primeCandidate(int bits, boolean prime) {
+                first.primeCandidate(bits, prime);
+                next.primeCandidate(bits, prime);
+            }
+
+            public void keyGeneration(int bits, int attempts, long nanos) {
+                first.keyGeneration(bits, attempts, nanos);
+                next.keyGeneration(bits, attempts, nanos);
+            }
+
+            public void encrypt(int bits, long nanos) {
+                first.encrypt(bits, nanos);
+                next.encrypt(bits, nanos);
+            }
+
+            public void decrypt(int bits, long nanos) {
+                first.decrypt(bits, nanos);
+                next.decrypt(bits, nanos);
+            }
+        };
+    }
+}
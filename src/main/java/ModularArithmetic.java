@@ -9,10 +9,29 @@
 
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
 
 public class ModularArithmetic {
 
+    /* Window widths accepted by modexp(a, b, N, window) */
+    public static final int WINDOW_AUTO = 0;
+    public static final int WINDOW_BINARY = 1;
+
+    /* Number of small primes isPrime() trial divides by before running Miller-Rabin */
+    private static final int TRIAL_DIVISION_PRIMES = 256;
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    /* Prime sizes up to this many bits are searched for without the sieve */
+    private static final int SIEVE_MIN_BITS = 32;
+
+    /* Source of genPrime()'s starting points: the primes are key material (SecureRandom is thread safe) */
+    private static final SecureRandom KEY_RANDOM = new SecureRandom();
+
     /* modAdd()
      *
      * ~ Adds two BigInteger values and Mods by N 
@@ -47,8 +66,49 @@ public class ModularArithmetic {
      * ATTN: Me and Gaurav Sheni worked together on figuring out this method (mainly
      *            translating it from Wikipedia to suit our needs.
      *
+     *       For odd moduli (every RSA modulus, prime and CRT half) the work is done
+     *       by the Montgomery engine, which works on mutable limbs and doesn't allocate
+     *       per bit, using a sliding window sized from b.bitLength(). If a Calibration
+     *       profile is installed, its engine and window for this size of N are used instead.
+     *       Even moduli fall back to the BigInteger loop below.
+     *
+     *       Each call sets up a fresh Montgomery context for N, which costs one full-width
+     *       division (R^2 mod N) and a few limb arrays. That is small next to the modexp
+     *       itself, but a caller doing many modexps under the same modulus should build the
+     *       Montgomery once and use modexp(a, b, context) instead, as the primality tests do.
+     *
      */
     public static BigInteger modexp(BigInteger a, BigInteger b, BigInteger N) {
+        return modexp(a, b, N, WINDOW_AUTO);
+    }
+
+    /* modExp()
+     *
+     * ~ Same as above, with the window width chosen by the caller: WINDOW_BINARY runs the
+     *   original right-to-left binary loop, WINDOW_AUTO sizes the window from b.bitLength(),
+     *   and any other value, up to ExponentPlan.MAX_WINDOW, is used as the sliding window
+     *   width directly.
+     */
+    public static BigInteger modexp(BigInteger a, BigInteger b, BigInteger N, int window) {
+        if (window != WINDOW_AUTO && (window < 1 || window > ExponentPlan.MAX_WINDOW))
+            throw new IllegalArgumentException("window must be WINDOW_AUTO or between 1 and " + ExponentPlan.MAX_WINDOW);
+
+        if (N.testBit(0) && N.bitLength() > 1 && b.signum() >= 0) {
+            if (window == WINDOW_AUTO) {
+                /* Follow the calibrated profile, if one is installed (see Calibration) */
+                CalibrationProfile.Choice choice = Calibration.choiceFor(N.bitLength());
+                if (choice != null && choice.engine() == CalibrationProfile.Engine.JDK)
+                    return jdkModexp(a, b, N);
+
+                /* The calibrated width was measured on a full-length exponent */
+                window = choice != null && choice.windowFits(b.bitLength(), N.bitLength()) ? choice.window() : Montgomery.windowFor(b.bitLength());
+            }
+
+            return new Montgomery(N).modexp(a, b, window);
+        }
+
+        long start = Metrics.start();
+
         BigInteger c = BigInteger.ONE;
         a = a.mod(N);
 
@@ -60,30 +120,158 @@ public class ModularArithmetic {
             a = a.multiply(a).mod(N);
         }
 
+        Metrics.modexp(N.bitLength(), start);
         return c;
     }
 
+    /* modExp()
+     *
+     * ~ Same as above, but reuses a precomputed Montgomery context for N
+     */
+    public static BigInteger modexp(BigInteger a, BigInteger b, Montgomery context) {
+        return context.modexp(a, b);
+    }
+
+    /* modExp()
+     *
+     * ~ Same as above, for an exponent recoded ahead of time (see ExponentPlan). Under a
+     *   Calibration profile, a plan recoded at a different width than the calibrated one
+     *   for this size is run at the calibrated width instead, scanning the exponent as the
+     *   plain modexp does; a plan that is to be replayed as it is should be built with
+     *   the calibrated width in the first place (as KeyContext does).
+     */
+    public static BigInteger modexp(BigInteger a, ExponentPlan b, BigInteger N) {
+        if (N.testBit(0) && N.bitLength() > 1) {
+            CalibrationProfile.Choice choice = Calibration.choiceFor(N.bitLength());
+            if (choice != null && choice.engine() == CalibrationProfile.Engine.JDK)
+                return jdkModexp(a, b.exponent(), N);
+
+            if (choice != null && choice.window() != b.window() && choice.windowFits(b.exponent().bitLength(), N.bitLength()))
+                return new Montgomery(N).modexp(a, b.exponent(), choice.window());
+
+            return new Montgomery(N).modexp(a, b);
+        }
+
+        return modexp(a, b.exponent(), N);
+    }
+
+    /* modExp()
+     *
+     * ~ Same as above, but reuses a precomputed Montgomery context for N
+     */
+    public static BigInteger modexp(BigInteger a, ExponentPlan b, Montgomery context) {
+        return context.modexp(a, b);
+    }
+
+    /* Runs a modexp on BigInteger.modPow(), for the sizes where calibration found it faster */
+    static BigInteger jdkModexp(BigInteger a, BigInteger b, BigInteger N) {
+        long start = Metrics.start();
+        BigInteger result = a.modPow(b, N);
+        Metrics.modexp(N.bitLength(), start);
+        return result;
+    }
+
     /* modDiv()
      *
      * ~ Divides two BigInteger values and Mods by N
+     *
+     *   Throws an ArithmeticException if b has no inverse mod N.
      */
     public static BigInteger moddiv(BigInteger a, BigInteger b, BigInteger N) {
-        /* Retrieves a packet containing the GCD, and the two coefficients (x, y) such that the following equation is satisfied */
-        BigInteger[] gcd = extendedEuclid(N, b);
-
-        /* gcd[1] is equal to the y-value, otherwise known as the inverse */
-        BigInteger c = a.multiply(gcd[1].mod(N)).mod(N);
+        BigInteger c = a.multiply(modInverse(b, N)).mod(N);
 
         return c;
     }
 
+    /* modInverse()
+     *
+     * ~ Returns b^-1 mod N, in [0, N). Throws an ArithmeticException if gcd(b, N) != 1.
+     *
+     *   Uses the binary extended GCD on mutable limbs (see BinaryGcd), which needs no
+     *   division and doesn't allocate inside its loop.
+     */
+    public static BigInteger modInverse(BigInteger b, BigInteger N) {
+        return BinaryGcd.modInverse(b, N);
+    }
+
+    /* batchModInverse()
+     *
+     * ~ Inverts every value mod N at once with Montgomery's trick: one modInverse() of the
+     *   product of all the values, plus about 3(n-1) modular multiplications to peel the
+     *   individual inverses back out of it.
+     *
+     *   The result lines up with the input; values that have no inverse mod N come back as
+     *   null. (If any are present, they are found with a gcd each and left out of the product.)
+     */
+    public static BigInteger[] batchModInverse(BigInteger[] values, BigInteger N) {
+        BigInteger[] inverses = new BigInteger[values.length];
+        boolean[] skip = new boolean[values.length];
+
+        if (!batchInvert(values, N, skip, inverses)) {
+            for (int i = 0; i < values.length; i++)
+                skip[i] = !values[i].gcd(N).equals(BigInteger.ONE);
+
+            batchInvert(values, N, skip, inverses);
+        }
+
+        return inverses;
+    }
+
+    /* batchModInverse()
+     *
+     * ~ Same as above, for a stream of values
+     */
+    public static BigInteger[] batchModInverse(Stream<BigInteger> values, BigInteger N) {
+        return batchModInverse(values.toArray(BigInteger[]::new), N);
+    }
+
+    /*
+     * Montgomery's trick over the values not marked in skip. Returns false (leaving out
+     * untouched) if the product of those values turns out not to be invertible.
+     */
+    private static boolean batchInvert(BigInteger[] values, BigInteger N, boolean[] skip, BigInteger[] out) {
+        /* before[i] = product of the values preceding i (mod N) */
+        BigInteger[] before = new BigInteger[values.length];
+        BigInteger product = BigInteger.ONE;
+
+        for (int i = 0; i < values.length; i++) {
+            if (skip[i])
+                continue;
+
+            before[i] = product;
+            product = modmult(product, values[i], N);
+        }
+
+        BigInteger inverse;
+        try {
+            inverse = modInverse(product, N);
+        }
+        catch (ArithmeticException err) {
+            return false;
+        }
+
+        /* Walking backwards, inverse is always the inverse of the product of values[0..i] */
+        for (int i = values.length - 1; i >= 0; i--) {
+            if (skip[i])
+                continue;
+
+            out[i] = modmult(inverse, before[i], N);
+            inverse = modmult(inverse, values[i], N);
+        }
+
+        return true;
+    }
+
     /* extendedEuclid()
      *
-     * ~ Multiplies two BigInteger values and Mods by N
+     * ~ Finds x, y & d such that ax + by = d = gcd(a, b)
+     *
+     *   This used to be the recursive textbook version; it is now the same algorithm run
+     *   as a loop, so it returns exactly the same coefficients without using a stack frame
+     *   (and a new packet) per step.
      */
     public static BigInteger[] extendedEuclid(BigInteger a, BigInteger b) {
         BigInteger[] container;
-        BigInteger[] packet;
 
         /*
          * container[0] = x
@@ -93,54 +281,274 @@ public class ModularArithmetic {
          */
          container = new BigInteger[3];
 
-        /* Following the algorithm defined in the textbook... */
-        if (b.compareTo(BigInteger.ZERO) == 0) {
-            container[0] = BigInteger.ONE;
-            container[1] = BigInteger.ZERO;
-            container[2] = a;
-        }
-        else {
-            /* Recursively call extendedEuclid(), as described in the book */
-            packet = extendedEuclid(b, a.mod(b));
-            container[0] = packet[1];
-            container[1] = packet[0].subtract(packet[1].multiply(a.divide(b)));
-            container[2] = packet[2];
+        /*
+         * Invariants: a * x0 + b * y0 = r0 and a * x1 + b * y1 = r1, where (r0, r1) walks
+         * down the same remainder sequence the recursive version did.
+         */
+        BigInteger r0 = a, r1 = b;
+        BigInteger x0 = BigInteger.ONE, x1 = BigInteger.ZERO;
+        BigInteger y0 = BigInteger.ZERO, y1 = BigInteger.ONE;
+
+        while (r1.signum() != 0) {
+            BigInteger q = r0.divide(r1);
+            BigInteger r = r0.mod(r1);
+
+            r0 = r1;
+            r1 = r;
+
+            BigInteger x = x0.subtract(q.multiply(x1));
+            x0 = x1;
+            x1 = x;
+
+            BigInteger y = y0.subtract(q.multiply(y1));
+            y0 = y1;
+            y1 = y;
         }
 
+        container[0] = x0;
+        container[1] = y0;
+        container[2] = r0;
+
         return container;
     }
 
     /* isPrime()
      *
      * ~ Determines whether a BigInteger N is prime, within a certain probability
+     *
+     *   Runs trial division by the small prime table first, then k rounds of Miller-Rabin.
+     *   The first round always uses the witness 2; the rest use random witnesses. The
+     *   test stops at the first witness that proves N composite.
      */
     public static boolean isPrime(BigInteger N, int k) {
-        BigInteger NEGONE = new BigInteger("-1");
+        return isPrime(N, k, false);
+    }
+
+    /* isPrime()
+     *
+     * ~ Determines whether a BigInteger N is prime with the Baillie-PSW test: trial
+     *   division, Miller-Rabin with the round count picked from N.bitLength(), and
+     *   a strong Lucas test. No composite is known to pass it.
+     */
+    public static boolean isPrime(BigInteger N) {
+        return isPrime(N, millerRabinRounds(N.bitLength()), true);
+    }
+
+    /* isPrime()
+     *
+     * ~ Trial division, then k rounds of Miller-Rabin, then (if lucas is set) a strong
+     *   Lucas test.
+     */
+    public static boolean isPrime(BigInteger N, int k, boolean lucas) {
+        if (N.compareTo(TWO) < 0)
+            return false;
+
+        if (!N.testBit(0))
+            return N.equals(TWO);
+
+        /* Trial division; anything below the square of the last prime tried is settled here */
+        int factor = PrimeSieve.smallFactor(N, TRIAL_DIVISION_PRIMES);
+        if (factor != 0) {
+            boolean prime = N.equals(BigInteger.valueOf(factor));
+            Metrics.primeCandidate(N.bitLength(), prime);
+            return prime;
+        }
+
+        int largest = PrimeSieve.SMALL_PRIMES[TRIAL_DIVISION_PRIMES - 1];
+        if (N.bitLength() < 63 && N.longValue() < (long) largest * largest)
+            return true;
+
+        boolean prime = passesMillerRabin(N, k) && (!lucas || passesLucas(N));
+        Metrics.primeCandidate(N.bitLength(), prime);
+        return prime;
+    }
+
+    /* millerRabinRounds()
+     *
+     * ~ Number of Miller-Rabin rounds for a random candidate of the given size. For 512 bits
+     *   and up this follows the FIPS 186-4 Appendix C.3 table (error probability 2^-100);
+     *   smaller sizes get more conservative counts.
+     */
+    public static int millerRabinRounds(int bitLength) {
+        if (bitLength >= 1536) return 3;
+        if (bitLength >= 1024) return 4;
+        if (bitLength >= 512) return 7;
+        if (bitLength >= 256) return 15;
+        return 40;
+    }
+
+    /* passesMillerRabin()
+     *
+     * ~ k rounds of Miller-Rabin on an odd N > 3, sharing one Montgomery context. The first
+     *   witness is 2, the rest are drawn at random from [2, N-2].
+     */
+    static boolean passesMillerRabin(BigInteger N, int k) {
+        return passesMillerRabin(new Montgomery(N), k);
+    }
+
+    /* passesMillerRabin()
+     *
+     * ~ Same as above, on a context the caller has already built for N (e.g. for a Fermat
+     *   pre-test), so that the candidate's R^2 mod N is only worked out once
+     */
+    static boolean passesMillerRabin(Montgomery context, int k) {
+        BigInteger N = context.getModulus();
+        BigInteger nMinusOne = N.subtract(BigInteger.ONE);
+        int s = nMinusOne.getLowestSetBit();
+        BigInteger d = nMinusOne.shiftRight(s);
+
+        BigInteger range = N.subtract(BigInteger.valueOf(3));
+        Random rand = ThreadLocalRandom.current();
 
-        Random rand = new Random();
         for (int i = 0; i < k; i++) {
-            BigInteger limit = N.add(NEGONE);
+            BigInteger a = i == 0 ? TWO : new BigInteger(N.bitLength() + 64, rand).mod(range).add(TWO);
+            BigInteger x = context.modexp(a, d);
+
+            if (x.equals(BigInteger.ONE) || x.equals(nMinusOne))
+                continue;
+
+            boolean composite = true;
+            for (int r = 1; r < s; r++) {
+                x = modmult(x, x, N);
+                if (x.equals(nMinusOne)) {
+                    composite = false;
+                    break;
+                }
+                if (x.equals(BigInteger.ONE))
+                    break;
+            }
 
-            BigInteger c;
+            if (composite)
+                return false;
+        }
+
+        return true;
+    }
+
+    /* passesLucas()
+     *
+     * ~ Strong Lucas probable prime test on an odd N > 3, with Selfridge's parameters:
+     *   D is the first of 5, -7, 9, -11, ... with Jacobi(D/N) = -1, P = 1 and Q = (1 - D)/4.
+     */
+    static boolean passesLucas(BigInteger N) {
+        /* No suitable D exists when N is a perfect square */
+        BigInteger root = N.sqrt();
+        if (root.multiply(root).equals(N))
+            return false;
+
+        long D = 5;
+        while (true) {
+            int j = jacobi(D, N);
+            if (j == -1)
+                break;
+            if (j == 0 && !N.equals(BigInteger.valueOf(Math.abs(D))))
+                return false;
+            D = D > 0 ? -(D + 2) : -(D - 2);
+        }
 
-            /*
-             * Constantly generates a random Integer of N-1 bit length, until it finds one that suits the spec
-             */
-            do {
-                c = new BigInteger(limit.bitLength(), rand);
+        BigInteger bigD = BigInteger.valueOf(D);
+        BigInteger Q = BigInteger.valueOf((1 - D) / 4);
+
+        /* N + 1 = d * 2^s with d odd */
+        BigInteger nPlusOne = N.add(BigInteger.ONE);
+        int s = nPlusOne.getLowestSetBit();
+        BigInteger d = nPlusOne.shiftRight(s);
+
+        /* U_1 = 1, V_1 = P = 1, Q^1 */
+        BigInteger U = BigInteger.ONE;
+        BigInteger V = BigInteger.ONE;
+        BigInteger Qk = Q.mod(N);
+
+        for (int i = d.bitLength() - 2; i >= 0; i--) {
+            /* Doubling: U_2k = U_k V_k, V_2k = V_k^2 - 2 Q^k */
+            U = U.multiply(V).mod(N);
+            V = V.multiply(V).subtract(Qk.shiftLeft(1)).mod(N);
+            Qk = Qk.multiply(Qk).mod(N);
+
+            if (d.testBit(i)) {
+                /* Increment: U_k+1 = (P U_k + V_k)/2, V_k+1 = (D U_k + P V_k)/2 */
+                BigInteger nextU = half(U.add(V), N);
+                V = half(bigD.multiply(U).add(V), N);
+                U = nextU;
+                Qk = Qk.multiply(Q).mod(N);
             }
-            while (c.compareTo(limit) >= 0);
+        }
 
-            /* If for whatever reason our range begins at 0, add 1 to it */
-            if (c.mod(N).equals(BigInteger.ZERO)) c.add(BigInteger.ONE);
+        if (U.signum() == 0 || V.signum() == 0)
+            return true;
 
-            BigInteger exp = ModularArithmetic.modexp(c, N.subtract(BigInteger.ONE), N);
+        for (int r = 1; r < s; r++) {
+            V = V.multiply(V).subtract(Qk.shiftLeft(1)).mod(N);
+            if (V.signum() == 0)
+                return true;
+            Qk = Qk.multiply(Qk).mod(N);
+        }
 
-            if (!exp.equals(BigInteger.ONE)) return false;
+        return false;
+    }
+
+    /* Returns x/2 mod N for odd N */
+    private static BigInteger half(BigInteger x, BigInteger N) {
+        x = x.mod(N);
+        if (x.testBit(0))
+            x = x.add(N);
+        return x.shiftRight(1);
+    }
+
+    /* jacobi()
+     *
+     * ~ Jacobi symbol (a/N) for a small (possibly negative) a and an odd N > 0
+     */
+    static int jacobi(long a, BigInteger N) {
+        int result = 1;
+        int nMod8 = N.intValue() & 7;
+
+        if (a < 0) {
+            a = -a;
+            if ((nMod8 & 3) == 3)
+                result = -result;
+        }
 
+        while (a != 0 && (a & 1) == 0) {
+            a >>= 1;
+            if (nMod8 == 3 || nMod8 == 5)
+                result = -result;
         }
 
-        return true;
+        if (a == 0)
+            return N.equals(BigInteger.ONE) ? 1 : 0;
+
+        /* Quadratic reciprocity flips (a/N) into (N mod a / a) */
+        if ((a & 3) == 3 && (nMod8 & 3) == 3)
+            result = -result;
+
+        return result * jacobi(N.mod(BigInteger.valueOf(a)).longValue(), a);
+    }
+
+    /* Jacobi symbol (a/n) for 0 <= a and odd n > 0 */
+    private static int jacobi(long a, long n) {
+        int result = 1;
+        a %= n;
+
+        while (a != 0) {
+            while ((a & 1) == 0) {
+                a >>= 1;
+                long r = n & 7;
+                if (r == 3 || r == 5)
+                    result = -result;
+            }
+
+            long t = a;
+            a = n;
+            n = t;
+
+            if ((a & 3) == 3 && (n & 3) == 3)
+                result = -result;
+
+            a %= n;
+        }
+
+        return n == 1 ? result : 0;
     }
     /*
     *
@@ -200,18 +608,72 @@ public class ModularArithmetic {
     /* genPrime()
      *
      * ~ Generates a prime number, based on the number of bits passed as input
+     *
+     *   Small sizes still use the built-in BigInteger constructor. Anything larger is found
+     *   with an incremental sieve (see PrimeSieve): one random odd starting point is walked
+     *   upwards two at a time, and only candidates with no factor among the first few
+     *   thousand primes are given the full primality test. Starting points are drawn
+     *   from a SecureRandom, as the primes end up as key material.
      */
     
     public static BigInteger genPrime(int n) {
         if(n < 2)
             throw new ArithmeticException();
 
-        Random rand = new Random();
+        Random rand = KEY_RANDOM;
 
-        // Constructs a BigInteger with the specified bits, where the second argument (100) is the certainty value
-        return new BigInteger(n, 100, rand);
+        if (n <= SIEVE_MIN_BITS) {
+            // Constructs a BigInteger with the specified bits, where the second argument (100) is the certainty value
+            return new BigInteger(n, 100, rand);
+        }
+
+        return genPrime(n, rand, () -> false);
+    }
+
+    /* genPrime()
+     *
+     * ~ Generates an n-bit prime like above, but so that the search can be abandoned:
+     *   cancelled is polled before every candidate, and null is returned as soon as it
+     *   reports true. Used by the parallel key generator, where every worker but the first
+     *   one to succeed gets cancelled.
+     */
+    public static BigInteger genPrime(int n, Random rand, BooleanSupplier cancelled) {
+        if(n < 2)
+            throw new ArithmeticException();
+
+        BigInteger limit = BigInteger.ONE.shiftLeft(n);
+        int rounds = millerRabinRounds(n);
 
+        while (!cancelled.getAsBoolean()) {
+            /* Random n-bit odd starting point (top bit forced, so it really is n bits long) */
+            BigInteger start = new BigInteger(n, rand).setBit(n - 1).setBit(0);
+
+            if (n <= SIEVE_MIN_BITS) {
+                if (start.isProbablePrime(100))
+                    return start;
+                continue;
+            }
+
+            /* Walk upwards through the odd numbers until we run out of n-bit values */
+            PrimeSieve sieve = new PrimeSieve(start);
+            long room = limit.subtract(start).min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+
+            while (sieve.offset() < room && !cancelled.getAsBoolean()) {
+                /* The sieve has already done the trial division, so go straight to Baillie-PSW */
+                if (sieve.survives()) {
+                    BigInteger candidate = sieve.candidate();
+                    boolean prime = passesMillerRabin(candidate, rounds) && passesLucas(candidate);
+
+                    Metrics.primeCandidate(n, prime);
+                    if (prime)
+                        return candidate;
+                }
+
+                sieve.advance(2);
+            }
+        }
+
+        return null;
     }
     
 }
-
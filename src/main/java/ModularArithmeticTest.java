@@ -1,6 +1,10 @@
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -154,4 +158,220 @@ public class ModularArithmeticTest {
         }
         assertEquals(true, isTestPassed);
     }
+
+    @Test
+    public void testModexp_window() throws Exception {
+        BigInteger a, b, N;
+        java.util.Random rand = new java.util.Random(7);
+        N = new BigInteger(1024, rand).setBit(0).setBit(1023);
+        a = new BigInteger(1024, rand);
+        b = new BigInteger(1024, rand);
+        for (int window = ModularArithmetic.WINDOW_AUTO; window <= 7; window++)
+            assertEquals(a.modPow(b, N), ModularArithmetic.modexp(a, b, N, window));
+        assertEquals(BigInteger.ONE, ModularArithmetic.modexp(a, BigInteger.ZERO, N, 5));
+    }
+
+    @Test
+    public void testModexp_windowOutOfRange() throws Exception {
+        java.util.Random rand = new java.util.Random(9);
+        BigInteger N = new BigInteger(256, rand).setBit(0).setBit(255);
+        BigInteger a = new BigInteger(256, rand), b = new BigInteger(256, rand);
+
+        /* Too wide a table, a shift that goes negative and one that wraps around */
+        for (int window : new int[] { -1, ExponentPlan.MAX_WINDOW + 1, 32, 40 }) {
+            boolean thrown = false;
+            try {
+                ModularArithmetic.modexp(a, b, N, window);
+            }
+            catch (IllegalArgumentException err) {
+                thrown = true;
+            }
+            assertEquals(true, thrown);
+
+            thrown = false;
+            try {
+                new Montgomery(N).modexp(a, b, window);
+            }
+            catch (IllegalArgumentException err) {
+                thrown = true;
+            }
+            assertEquals(true, thrown);
+        }
+    }
+
+    @Test
+    public void testGenPrime_sieve() throws Exception {
+        for (int n = 33; n <= 1024; n *= 2) {
+            BigInteger N = ModularArithmetic.genPrime(n);
+            assertEquals(n, N.bitLength());
+            assertEquals(true, N.isProbablePrime(100));
+        }
+    }
+
+    @Test
+    public void testIsPrime_carmichael() throws Exception {
+        /* Carmichael numbers fool the Fermat test for every coprime witness */
+        long[] carmichael = { 561, 1105, 1729, 2465, 2821, 6601, 8911, 41041, 321197185L, 9746347772161L };
+        boolean isTestPassed = true;
+        for (long c : carmichael)
+            isTestPassed = isTestPassed && !ModularArithmetic.isPrime(BigInteger.valueOf(c), 4);
+        /* 3215031751 is a strong pseudoprime to bases 2, 3, 5 & 7, which the Lucas test catches */
+        isTestPassed = isTestPassed && !ModularArithmetic.isPrime(new BigInteger("3215031751"));
+        isTestPassed = isTestPassed && ModularArithmetic.isPrime(new BigInteger("285044579391958034764329004428399141293"));
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testModInverse() throws Exception {
+        BigInteger a, N;
+        a = new BigInteger("834352543");
+        N = new BigInteger("5643436545");
+        assertEquals(a.modInverse(N), ModularArithmetic.modInverse(a, N));
+        /* Even modulus, as used for d = e^-1 mod (p-1)(q-1) */
+        a = new BigInteger("65537");
+        N = new BigInteger("285044579391958034764329004428399141292");
+        assertEquals(a.modInverse(N), ModularArithmetic.modInverse(a, N));
+        boolean thrown = false;
+        try {
+            ModularArithmetic.modInverse(new BigInteger("6"), new BigInteger("15"));
+        }
+        catch (ArithmeticException err) {
+            thrown = true;
+        }
+        assertEquals(true, thrown);
+    }
+
+    @Test
+    public void testBatchModInverse() throws Exception {
+        BigInteger N = new BigInteger("5643436545");
+        BigInteger[] values = { new BigInteger("8"), new BigInteger("952545454"), new BigInteger("15"),
+                                new BigInteger("834352543"), BigInteger.ZERO, new BigInteger("7") };
+        BigInteger[] inverses = ModularArithmetic.batchModInverse(values, N);
+        boolean isTestPassed = inverses[2] == null && inverses[4] == null;
+        for (int i : new int[] { 0, 1, 3, 5 })
+            isTestPassed = isTestPassed && values[i].modInverse(N).equals(inverses[i]);
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testMontgomeryBatch() throws Exception {
+        Random rand = new Random(19);
+        BigInteger N = new BigInteger(1024, rand).setBit(1023).setBit(0);
+        BigInteger b = new BigInteger(1024, rand);
+        BigInteger[] values = new BigInteger[21];
+        for (int i = 0; i < values.length; i++)
+            values[i] = new BigInteger(1030, rand);
+
+        /* Same answers whichever engine (vector or scalar) this JVM ends up with */
+        BigInteger[] results = MontgomeryBatch.modexp(values, b, new Montgomery(N));
+        boolean isTestPassed = true;
+        for (int i = 0; i < values.length; i++)
+            isTestPassed = isTestPassed && values[i].modPow(b, N).equals(results[i]);
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testSpecialPrimes() throws Exception {
+        SpecialPrimeGenerator generator = new SpecialPrimeGenerator();
+        boolean isTestPassed = true;
+
+        for (int n : new int[] { 3, 20, 256 }) {
+            BigInteger p = generator.safePrime(n);
+            BigInteger q = p.shiftRight(1);
+            isTestPassed = isTestPassed && p.bitLength() == n && p.isProbablePrime(50) && q.isProbablePrime(50);
+        }
+
+        BigInteger strong = generator.strongPrime(256);
+        isTestPassed = isTestPassed && strong.bitLength() == 256 && strong.isProbablePrime(50);
+
+        /* A progress hook that gives up straight away */
+        try {
+            generator.safePrime(2048, tested -> tested < 5);
+            isTestPassed = false;
+        }
+        catch (java.util.concurrent.CancellationException err) {
+        }
+
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testExponentPlan() throws Exception {
+        Random rand = new Random(23);
+        BigInteger N = new BigInteger(512, rand).setBit(511).setBit(0);
+        Montgomery context = new Montgomery(N);
+        boolean isTestPassed = true;
+
+        for (BigInteger b : new BigInteger[] { BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(65537),
+                                              new BigInteger(64, rand).shiftLeft(40), new BigInteger(512, rand) }) {
+            BigInteger a = new BigInteger(600, rand);
+            for (int window = 1; window <= ExponentPlan.MAX_WINDOW; window++)
+                isTestPassed = isTestPassed && a.modPow(b, N).equals(context.modexp(a, new ExponentPlan(b, window)));
+            isTestPassed = isTestPassed && a.modPow(b, N).equals(ModularArithmetic.modexp(a, ExponentPlan.of(b), N));
+        }
+
+        /* 65537 = 2^16 + 1 needs no table and a single multiplication */
+        ExponentPlan e = ExponentPlan.of(BigInteger.valueOf(65537));
+        isTestPassed = isTestPassed && e.window() == 1 && e.multiplications() == 1 && e.squarings() == 16;
+
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testCalibration() throws Exception {
+        Path file = Files.createTempFile("calibration", ".properties");
+        try {
+            Files.delete(file);
+
+            /* The first call measures and stores a profile, the second just reads it back */
+            CalibrationProfile measured = Calibration.loadOrRun(file, 128, 256);
+            CalibrationProfile loaded = Calibration.loadOrRun(file, 128, 256);
+            boolean isTestPassed = Files.exists(file) && measured.covers(128, 256)
+                    && loaded.toString().equals(measured.toString()) && Calibration.current() == loaded;
+
+            /* Either engine has to give the same answers */
+            Random rand = new Random(29);
+            BigInteger N = new BigInteger(256, rand).setBit(255).setBit(0);
+            BigInteger a = new BigInteger(300, rand), b = new BigInteger(256, rand);
+
+            for (CalibrationProfile.Engine engine : CalibrationProfile.Engine.values()) {
+                Calibration.install(new CalibrationProfile(Collections.singletonMap(256, new CalibrationProfile.Choice(engine, 4, 0))));
+                isTestPassed = isTestPassed && Calibration.choiceFor(250).engine() == engine
+                        && a.modPow(b, N).equals(ModularArithmetic.modexp(a, b, N))
+                        && a.modPow(b, N).equals(ModularArithmetic.modexp(a, ExponentPlan.of(b), N))
+                        && a.modPow(b, N).equals(ModularArithmetic.modexp(a, new ExponentPlan(b, 1), N));
+            }
+
+            assertEquals(true, isTestPassed);
+        }
+        finally {
+            Calibration.install(CalibrationProfile.EMPTY);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testCalibration_unwritable() throws Exception {
+        /* A file under a regular file can't be written */
+        Path blocker = Files.createTempFile("calibration", ".blocker");
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        Metrics.install(metrics);
+        try {
+            CalibrationProfile profile = Calibration.loadOrRun(blocker.resolve("calibration.properties"), 128);
+
+            /* The profile is kept all the same, and its trials stay out of the metrics */
+            assertEquals(true, profile.covers(128));
+            assertEquals(true, Calibration.current() == profile);
+            assertEquals(0, metrics.modexpCount());
+
+            ModularArithmetic.modexp(BigInteger.valueOf(3), BigInteger.valueOf(5), BigInteger.valueOf(101));
+            assertEquals(1, metrics.modexpCount());
+        }
+        finally {
+            Metrics.install(MetricsRegistry.NOOP);
+            Calibration.install(CalibrationProfile.EMPTY);
+            Files.deleteIfExists(blocker);
+        }
+    }
 }
+
@@ -0,0 +1,384 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements Montgomery multiplication over fixed-width, mutable int[] limbs.
+ *              A Montgomery object is built once per (odd) modulus and holds the precomputed
+ *              constants, so that a whole exponentiation can run without allocating anything
+ *              after its initial setup.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public class Montgomery {
+    /* Mask used to read an int limb as an unsigned value */
+    private static final long MASK = 0xFFFFFFFFL;
+
+    /* The modulus, both as a BigInteger and as little-endian 32-bit limbs */
+    private final BigInteger N;
+    private final int[] n;
+
+    /* Number of limbs in the modulus; R = 2^(32 * len) */
+    private final int len;
+
+    /* -N^-1 mod 2^32 */
+    private final int n0inv;
+
+    /* R^2 mod N, used to move values into Montgomery form */
+    private final int[] r2;
+
+    /*
+     *  Montgomery(BigInteger)
+     *
+     *  ~ Precomputes the per-modulus context. N must be odd and greater than 1.
+     */
+    public Montgomery(BigInteger N) {
+        if (N.signum() <= 0 || !N.testBit(0) || N.equals(BigInteger.ONE))
+            throw new ArithmeticException("Montgomery modulus must be odd and greater than 1");
+
+        this.N = N;
+        this.len = (N.bitLength() + 31) >>> 5;
+        this.n = toLimbs(N, len);
+        this.n0inv = -inverse32(n[0]);
+        this.r2 = toLimbs(BigInteger.ONE.shiftLeft(64 * len).mod(N), len);
+    }
+
+    /* Returns the modulus this context was built for */
+    public BigInteger getModulus() {
+        return N;
+    }
+
+    /* Returns the number of 32-bit limbs used for every operand */
+    public int limbs() {
+        return len;
+    }
+
+    /* Exponent bit lengths up to which each window width (1, 2, 3, ...) is the cheapest */
+    private static final int[] WINDOW_THRESHOLDS = { 7, 25, 81, 241, 673, 1793 };
+
+    /* modExp()
+     *
+     * ~ Raises a to the power b and mods by N, picking the window width from b.bitLength()
+     */
+    public BigInteger modexp(BigInteger a, BigInteger b) {
+        return modexp(a, b, windowFor(b.bitLength()));
+    }
+
+    /* modExp()
+     *
+     * ~ Raises a to the power b and mods by N, using a window of the given width.
+     *   A width of 1 runs the plain right-to-left binary ladder; anything wider runs the
+     *   left-to-right sliding window over the odd powers a, a^3, ..., a^(2^window - 1).
+     *   Widths past ExponentPlan.MAX_WINDOW are rejected, as the table would only grow.
+     *   All of the working buffers are allocated up front; the loops themselves only
+     *   ever write into them.
+     */
+    public BigInteger modexp(BigInteger a, BigInteger b, int window) {
+        if (window < 1 || window > ExponentPlan.MAX_WINDOW)
+            throw new IllegalArgumentException("window must be between 1 and " + ExponentPlan.MAX_WINDOW);
+
+        long start = Metrics.start();
+
+        int[] acc = new int[len];
+        int[] t = new int[len + 2];
+
+        if (window == 1) {
+            int[] base = new int[len];
+
+            toMontgomery(a, base, t);
+            toMontgomery(BigInteger.ONE, acc, t);
+
+            for (int i = 0; i < b.bitLength(); i++) {
+                /* Checks to see if designated bit of this BigInteger (b) is set. */
+                if (b.testBit(i))
+                    multiply(acc, base, acc, t);
+
+                multiply(base, base, base, t);
+            }
+        }
+        else {
+            /* powers[i] holds a^(2i + 1) in Montgomery form */
+            int[][] powers = new int[1 << (window - 1)][len];
+            int[] square = new int[len];
+
+            toMontgomery(a, powers[0], t);
+            multiply(powers[0], powers[0], square, t);
+            for (int i = 1; i < powers.length; i++)
+                multiply(powers[i - 1], square, powers[i], t);
+
+            toMontgomery(BigInteger.ONE, acc, t);
+            boolean started = false;
+
+            int i = b.bitLength() - 1;
+            while (i >= 0) {
+                if (!b.testBit(i)) {
+                    if (started)
+                        multiply(acc, acc, acc, t);
+                    i--;
+                    continue;
+                }
+
+                /* Take the longest window b[i..low] (at most window bits) that ends in a set bit */
+                int low = Math.max(i - window + 1, 0);
+                while (!b.testBit(low))
+                    low++;
+
+                int value = 0;
+                for (int j = i; j >= low; j--)
+                    value = (value << 1) | (b.testBit(j) ? 1 : 0);
+
+                if (started) {
+                    for (int j = i; j >= low; j--)
+                        multiply(acc, acc, acc, t);
+                    multiply(acc, powers[value >>> 1], acc, t);
+                }
+                else {
+                    System.arraycopy(powers[value >>> 1], 0, acc, 0, len);
+                    started = true;
+                }
+
+                i = low - 1;
+            }
+        }
+
+        fromMontgomery(acc, acc, t);
+        BigInteger result = fromLimbs(acc);
+
+        Metrics.modexp(N.bitLength(), start);
+        return result;
+    }
+
+    /* modExp()
+     *
+     * ~ Raises a to the exponent plan was made for and mods by N, replaying the plan's
+     *   precomputed windows instead of scanning the exponent's bits.
+     */
+    public BigInteger modexp(BigInteger a, ExponentPlan plan) {
+        long start = Metrics.start();
+
+        int[] acc = new int[len];
+        int[] t = new int[len + 2];
+
+        if (plan.first < 0) {
+            toMontgomery(BigInteger.ONE, acc, t);
+        }
+        else {
+            /* powers[i] holds a^(2i + 1) in Montgomery form */
+            int[][] powers = new int[plan.tableSize()][len];
+            toMontgomery(a, powers[0], t);
+
+            if (powers.length > 1) {
+                int[] square = new int[len];
+                multiply(powers[0], powers[0], square, t);
+                for (int i = 1; i < powers.length; i++)
+                    multiply(powers[i - 1], square, powers[i], t);
+            }
+
+            System.arraycopy(powers[plan.first], 0, acc, 0, len);
+
+            for (int k = 0; k < plan.digits.length; k++) {
+                for (int j = plan.squarings[k]; j > 0; j--)
+                    multiply(acc, acc, acc, t);
+                multiply(acc, powers[plan.digits[k]], acc, t);
+            }
+
+            for (int j = plan.trailing; j > 0; j--)
+                multiply(acc, acc, acc, t);
+        }
+
+        fromMontgomery(acc, acc, t);
+        BigInteger result = fromLimbs(acc);
+
+        Metrics.modexp(N.bitLength(), start);
+        return result;
+    }
+
+    /* modExpShort()
+     *
+     * ~ Raises a to a short (at most 63 bit) exponent b and mods by N with a plain
+     *   left-to-right square-and-multiply: no table of powers, and no BigInteger bit
+     *   tests. For b = 65537 that is 16 squarings and a single multiplication.
+     */
+    public BigInteger modexpShort(BigInteger a, long b) {
+        if (b < 0)
+            throw new IllegalArgumentException("exponent must be non-negative");
+
+        long start = Metrics.start();
+
+        int[] base = new int[len];
+        int[] acc = new int[len];
+        int[] t = new int[len + 2];
+
+        if (b == 0) {
+            toMontgomery(BigInteger.ONE, acc, t);
+        }
+        else {
+            toMontgomery(a, base, t);
+            System.arraycopy(base, 0, acc, 0, len);
+
+            for (int i = 62 - Long.numberOfLeadingZeros(b); i >= 0; i--) {
+                multiply(acc, acc, acc, t);
+                if (((b >>> i) & 1) != 0)
+                    multiply(acc, base, acc, t);
+            }
+        }
+
+        fromMontgomery(acc, acc, t);
+        BigInteger result = fromLimbs(acc);
+
+        Metrics.modexp(N.bitLength(), start);
+        return result;
+    }
+
+    /* Returns the sliding window width to use for an exponent of the given bit length */
+    public static int windowFor(int bitLength) {
+        int window = 1;
+        while (window <= WINDOW_THRESHOLDS.length && bitLength > WINDOW_THRESHOLDS[window - 1])
+            window++;
+        return window;
+    }
+
+    /* toMontgomery()
+     *
+     * ~ Writes x * R mod N into out. t is scratch space of at least len + 2 limbs.
+     */
+    public void toMontgomery(BigInteger x, int[] out, int[] t) {
+        int[] limbs = toLimbs(x.mod(N), len);
+        multiply(limbs, r2, out, t);
+    }
+
+    /* fromMontgomery()
+     *
+     * ~ Writes x * R^-1 mod N into out, i.e. takes x back out of Montgomery form.
+     */
+    public void fromMontgomery(int[] x, int[] out, int[] t) {
+        Arrays.fill(t, 0);
+
+        for (int i = 0; i < len; i++)
+            t[i] = x[i];
+
+        for (int i = 0; i < len; i++)
+            reduceStep(t);
+
+        finish(t, out);
+    }
+
+    /* multiply()
+     *
+     * ~ Montgomery product out = a * b * R^-1 mod N, using the CIOS method. out may alias
+     *   a or b; t is scratch space of at least len + 2 limbs and is overwritten.
+     */
+    public void multiply(int[] a, int[] b, int[] out, int[] t) {
+        Arrays.fill(t, 0, len + 2, 0);
+
+        for (int i = 0; i < len; i++) {
+            long ai = a[i] & MASK;
+            long carry = 0;
+
+            /* t += a[i] * b */
+            for (int j = 0; j < len; j++) {
+                long s = (t[j] & MASK) + ai * (b[j] & MASK) + carry;
+                t[j] = (int) s;
+                carry = s >>> 32;
+            }
+
+            long s = (t[len] & MASK) + carry;
+            t[len] = (int) s;
+            t[len + 1] = (int) (s >>> 32);
+
+            reduceStep(t);
+        }
+
+        finish(t, out);
+    }
+
+    /*
+     * One word of Montgomery reduction: adds the multiple of N that clears t[0], then
+     * shifts t down by one limb.
+     */
+    private void reduceStep(int[] t) {
+        long m = (t[0] * n0inv) & MASK;
+
+        long s = (t[0] & MASK) + m * (n[0] & MASK);
+        long carry = s >>> 32;
+
+        for (int j = 1; j < len; j++) {
+            s = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+            t[j - 1] = (int) s;
+            carry = s >>> 32;
+        }
+
+        s = (t[len] & MASK) + carry;
+        t[len - 1] = (int) s;
+        t[len] = t[len + 1] + (int) (s >>> 32);
+        t[len + 1] = 0;
+    }
+
+    /* Copies t into out, subtracting N once if t >= N */
+    private void finish(int[] t, int[] out) {
+        boolean subtract = t[len] != 0;
+
+        if (!subtract) {
+            subtract = true;
+            for (int j = len - 1; j >= 0; j--) {
+                int cmp = Integer.compareUnsigned(t[j], n[j]);
+                if (cmp != 0) {
+                    subtract = cmp > 0;
+                    break;
+                }
+            }
+        }
+
+        if (subtract) {
+            long borrow = 0;
+            for (int j = 0; j < len; j++) {
+                long s = (t[j] & MASK) - (n[j] & MASK) - borrow;
+                out[j] = (int) s;
+                borrow = (s >>> 63);
+            }
+        }
+        else {
+            System.arraycopy(t, 0, out, 0, len);
+        }
+    }
+
+    /* Returns x^-1 mod 2^32 for odd x, via Newton iteration */
+    private static int inverse32(int x) {
+        int y = x;
+        for (int i = 0; i < 5; i++)
+            y *= 2 - x * y;
+        return y;
+    }
+
+    /* Splits a non-negative BigInteger into len little-endian 32-bit limbs */
+    static int[] toLimbs(BigInteger x, int len) {
+        int[] limbs = new int[len];
+        byte[] bytes = x.toByteArray();
+
+        for (int i = 0; i < bytes.length; i++) {
+            int limb = i >>> 2;
+            if (limb >= len)
+                break;
+            limbs[limb] |= (bytes[bytes.length - 1 - i] & 0xFF) << ((i & 3) << 3);
+        }
+
+        return limbs;
+    }
+
+    /* Reassembles little-endian 32-bit limbs into a non-negative BigInteger */
+    static BigInteger fromLimbs(int[] limbs) {
+        byte[] bytes = new byte[limbs.length << 2];
+
+        for (int i = 0; i < limbs.length; i++) {
+            int limb = limbs[limbs.length - 1 - i];
+            bytes[4 * i] = (byte) (limb >>> 24);
+            bytes[4 * i + 1] = (byte) (limb >>> 16);
+            bytes[4 * i + 2] = (byte) (limb >>> 8);
+            bytes[4 * i + 3] = (byte) limb;
+        }
+
+        return new BigInteger(1, bytes);
+    }
+}
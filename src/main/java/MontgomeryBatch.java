@@ -0,0 +1,92 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class raises a whole batch of values to the same exponent modulo the same
+ *              (odd) modulus, e.g. to decrypt many ciphertexts under one key. Where the JDK's
+ *              incubating Vector API is available (run with --add-modules jdk.incubator.vector),
+ *              the batch goes to VectorMontgomery, which works on one value per SIMD lane.
+ *              Otherwise every value is run through the scalar Montgomery engine in turn.
+ *
+ *              The vector engine is looked up by name, so this class (and everything that uses
+ *              it) still compiles and runs on a JVM without the incubator module.
+ *
+ */
+
+
+import java.math.BigInteger;
+
+public class MontgomeryBatch {
+    /* Set this system property to false to force the scalar engine */
+    public static final String VECTOR_PROPERTY = "rsa.vector";
+
+    /*
+     * A batch exponentiation engine. Implementations are stateless and can be shared between
+     * threads.
+     */
+    interface Engine {
+        /* Number of values the engine works on at once */
+        int lanes();
+
+        /* Returns bases[i]^exponent mod N for every i, following the exponent's plan */
+        BigInteger[] modexp(BigInteger[] bases, ExponentPlan plan, BigInteger N);
+    }
+
+    /* The vector engine, or null if the Vector API isn't there (or isn't worth using) */
+    private static final Engine VECTOR = loadVectorEngine();
+
+    /* Returns true if batches are run on the vector engine */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /* Returns the number of values handled at once: the SIMD lane count, or 1 for the scalar engine */
+    public static int lanes() {
+        return VECTOR == null ? 1 : VECTOR.lanes();
+    }
+
+    /* modexp()
+     *
+     * ~ Returns bases[i]^exponent mod N for every i, picking the window width from the
+     *   exponent (see ExponentPlan.of()). N is the modulus context was built for.
+     */
+    public static BigInteger[] modexp(BigInteger[] bases, BigInteger exponent, Montgomery context) {
+        return modexp(bases, ExponentPlan.of(exponent), context);
+    }
+
+    /* modexp()
+     *
+     * ~ Same as above, with the given window width
+     */
+    public static BigInteger[] modexp(BigInteger[] bases, BigInteger exponent, Montgomery context, int window) {
+        return modexp(bases, new ExponentPlan(exponent, window), context);
+    }
+
+    /* modexp()
+     *
+     * ~ Same as above, for an exponent recoded ahead of time (see ExponentPlan)
+     */
+    public static BigInteger[] modexp(BigInteger[] bases, ExponentPlan plan, Montgomery context) {
+        /* A lone value gains nothing from the lanes */
+        if (VECTOR != null && bases.length > 1)
+            return VECTOR.modexp(bases, plan, context.getModulus());
+
+        BigInteger[] results = new BigInteger[bases.length];
+        for (int i = 0; i < bases.length; i++)
+            results[i] = context.modexp(bases[i], plan);
+        return results;
+    }
+
+    private static Engine loadVectorEngine() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true")))
+            return null;
+
+        try {
+            Engine engine = (Engine) Class.forName("VectorMontgomery").getDeclaredConstructor().newInstance();
+            return engine.lanes() > 1 ? engine : null;
+        }
+        catch (ReflectiveOperationException | LinkageError err) {
+            /* jdk.incubator.vector isn't in the module graph */
+            return null;
+        }
+    }
+}
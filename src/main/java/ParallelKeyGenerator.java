@@ -0,0 +1,156 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class generates RSA key pairs in parallel. p & q are searched for at
+ *              the same time, each search is spread over several workers, and the workers
+ *              that lose the race are cancelled as soon as a usable prime turns up. Every
+ *              worker draws its candidates from its own SecureRandom.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+public class ParallelKeyGenerator {
+    /* Pool the prime searches are run on */
+    private final ForkJoinPool pool;
+
+    /* Number of workers racing to find each of p & q */
+    private final int workersPerPrime;
+
+    /*
+     *  ParallelKeyGenerator()
+     *
+     *  ~ Uses the common fork-join pool, with half the cores searching for p and the
+     *    other half for q.
+     */
+    public ParallelKeyGenerator() {
+        this(ForkJoinPool.commonPool(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /*
+     *  ParallelKeyGenerator(ForkJoinPool, int)
+     *
+     *  ~ Runs the searches on the given pool, with workersPerPrime workers per prime.
+     */
+    public ParallelKeyGenerator(ForkJoinPool pool, int workersPerPrime) {
+        if (workersPerPrime < 1)
+            throw new IllegalArgumentException("workersPerPrime must be at least 1");
+
+        this.pool = pool;
+        this.workersPerPrime = workersPerPrime;
+    }
+
+    /* generate()
+     *
+     * ~ Generates a key pair from two n-bit primes with the default public exponent (65537)
+     */
+    public RSA generate(int n) {
+        return generate(n, RSA.DEFAULT_PUBLIC_EXPONENT);
+    }
+
+    /* generate()
+     *
+     * ~ Generates a key pair from two n-bit primes with public exponent e, blocking until done
+     */
+    public RSA generate(int n, BigInteger e) {
+        return generateAsync(n, e, workersPerPrime).join();
+    }
+
+    /* generate()
+     *
+     * ~ Bulk mode: generates count key pairs at once. Every key gets one worker per prime,
+     *   and all of the keys are in flight together, so the pool stays busy until the last
+     *   one is done.
+     */
+    public List<RSA> generate(int n, BigInteger e, int count) {
+        List<CompletableFuture<RSA>> futures = new ArrayList<CompletableFuture<RSA>>(count);
+
+        for (int i = 0; i < count; i++)
+            futures.add(generateAsync(n, e, 1));
+
+        List<RSA> keys = new ArrayList<RSA>(count);
+        for (CompletableFuture<RSA> future : futures)
+            keys.add(future.join());
+
+        return keys;
+    }
+
+    /* generateAsync()
+     *
+     * ~ Starts the p & q searches side by side and builds the key once both are in. If
+     *   they happen to collide, q is searched for again. Cancelling the future stops every
+     *   worker still searching.
+     */
+    public CompletableFuture<RSA> generateAsync(final int n, final BigInteger e, final int workers) {
+        if (e.compareTo(BigInteger.valueOf(3)) < 0 || !e.testBit(0))
+            throw new IllegalArgumentException("Public exponent must be odd and at least 3");
+
+        final long start = Metrics.start();
+        final CompletableFuture<RSA> key = new CompletableFuture<RSA>();
+
+        CompletableFuture<BigInteger> p = searchPrime(n, e, workers, key::isDone);
+        CompletableFuture<BigInteger> q = searchPrime(n, e, workers, key::isDone);
+
+        p.thenCombine(q, (first, second) -> new BigInteger[] { first, second })
+                .thenCompose(primes -> complete(primes[0], primes[1], n, e, workers, 1, start, key::isDone))
+                .whenComplete((built, err) -> {
+                    if (err != null)
+                        key.completeExceptionally(err);
+                    else
+                        key.complete(built);
+                });
+
+        return key;
+    }
+
+    /* Builds the key from p & q, or searches for a new q if the two are equal */
+    private CompletableFuture<RSA> complete(final BigInteger p, BigInteger q, final int n, final BigInteger e, final int workers,
+                                            final int attempts, final long start, final BooleanSupplier abandoned) {
+        if (!p.equals(q)) {
+            RSA key = new RSA(p, q, e);
+            Metrics.keyGeneration(key.N.bitLength(), attempts, start);
+            return CompletableFuture.completedFuture(key);
+        }
+
+        return searchPrime(n, e, workers, abandoned)
+                .thenCompose(next -> complete(p, next, n, e, workers, attempts + 1, start, abandoned));
+    }
+
+    /* searchPrime()
+     *
+     * ~ Races workers for an n-bit prime p with gcd(e, p-1) = 1. The first worker to find
+     *   one completes the future; every other worker sees that and gives up on its search.
+     *   They all give up as well once abandoned reports true (the key was cancelled).
+     */
+    private CompletableFuture<BigInteger> searchPrime(final int n, final BigInteger e, int workers, final BooleanSupplier abandoned) {
+        final CompletableFuture<BigInteger> result = new CompletableFuture<BigInteger>();
+        final BooleanSupplier done = () -> result.isDone() || abandoned.getAsBoolean();
+
+        for (int i = 0; i < workers; i++) {
+            pool.execute(() -> {
+                try {
+                    SecureRandom rand = new SecureRandom();
+
+                    while (!done.getAsBoolean()) {
+                        BigInteger candidate = ModularArithmetic.genPrime(n, rand, done);
+
+                        if (candidate != null && candidate.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE))
+                            result.complete(candidate);
+                    }
+                }
+                catch (RuntimeException err) {
+                    result.completeExceptionally(err);
+                }
+            });
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class keeps a stock of ready-made primes of a few configured sizes, so
+ *              that building a key (see RSA(PrimePool, int)) doesn't have to wait for a prime
+ *              search. Each size gets a bounded queue, which low-priority daemon threads keep
+ *              topped up in the background: whichever size is furthest below its depth is
+ *              refilled first. Taking a prime is a queue poll; only when the queue for that
+ *              size is empty does the caller fall back to searching for one itself.
+ *
+ *              Every prime in the pool has gcd(e, p-1) = 1 for the pool's public exponent,
+ *              so any two distinct ones make a valid key for that exponent. As they end up as
+ *              key material, they are drawn from SecureRandom: one per background thread, and
+ *              a shared one for the searches take() falls back to.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+public class PrimePool implements AutoCloseable {
+    /* Default number of primes kept ready per size */
+    public static final int DEFAULT_DEPTH = 16;
+
+    /* The primes of one size, and what it took to make them */
+    private static final class Stock {
+        final int bits;
+        final ArrayBlockingQueue<BigInteger> primes;
+
+        /* Number of background searches currently running for this size */
+        int searching;
+
+        final AtomicLong generated = new AtomicLong();
+        final AtomicLong searchNanos = new AtomicLong();
+
+        Stock(int bits, int depth) {
+            this.bits = bits;
+            this.primes = new ArrayBlockingQueue<BigInteger>(depth);
+        }
+    }
+
+    private final int depth;
+    private final BigInteger publicExponent;
+    private final Map<Integer, Stock> stocks;
+    private final Thread[] fillers;
+
+    /* Randomness for the searches take() runs on its callers' threads */
+    private final SecureRandom fallbackRandom = new SecureRandom();
+
+    /* Guards Stock.searching; the fillers wait on it while every queue is full */
+    private final Object lock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /*
+     *  PrimePool(int...)
+     *
+     *  ~ A pool of DEFAULT_DEPTH primes for each of the given sizes (in bits), for the
+     *    default public exponent, filled by half the cores.
+     */
+    public PrimePool(int... sizes) {
+        this(DEFAULT_DEPTH, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), RSA.DEFAULT_PUBLIC_EXPONENT, sizes);
+    }
+
+    /*
+     *  PrimePool(int, int, BigInteger, int...)
+     *
+     *  ~ A pool keeping depth primes of each of the given sizes, usable with publicExponent,
+     *    filled by the given number of background threads. The threads start straight away.
+     */
+    public PrimePool(int depth, int threads, BigInteger publicExponent, int... sizes) {
+        if (depth < 1 || threads < 1)
+            throw new IllegalArgumentException("depth and threads must both be positive");
+        if (publicExponent.compareTo(BigInteger.valueOf(3)) < 0 || !publicExponent.testBit(0))
+            throw new IllegalArgumentException("Public exponent must be odd and at least 3");
+
+        this.depth = depth;
+        this.publicExponent = publicExponent;
+
+        Map<Integer, Stock> stocks = new LinkedHashMap<Integer, Stock>();
+        for (int bits : sizes) {
+            if (bits < 2)
+                throw new IllegalArgumentException("Prime size must be at least 2 bits");
+            stocks.put(bits, new Stock(bits, depth));
+        }
+        this.stocks = Collections.unmodifiableMap(stocks);
+
+        this.fillers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            fillers[i] = new Thread(this::fill, "prime-pool-" + i);
+            fillers[i].setDaemon(true);
+            fillers[i].setPriority(Thread.MIN_PRIORITY);
+            fillers[i].start();
+        }
+    }
+
+    /* Returns the public exponent every pooled prime is compatible with */
+    public BigInteger getPublicExponent() {
+        return publicExponent;
+    }
+
+    /* take()
+     *
+     * ~ Returns an n-bit prime, straight from the pool if there is one ready, and from a
+     *   search on the calling thread if not (or if the pool doesn't keep n-bit primes).
+     */
+    public BigInteger take(int n) {
+        Stock stock = stocks.get(n);
+        BigInteger prime = stock == null ? null : stock.primes.poll();
+
+        if (prime != null) {
+            hits.incrementAndGet();
+
+            /* Wake a filler to replace it */
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            return prime;
+        }
+
+        misses.incrementAndGet();
+        return search(n, fallbackRandom, () -> false);
+    }
+
+    /* Returns the number of n-bit primes ready in the pool right now */
+    public int depth(int n) {
+        Stock stock = stocks.get(n);
+        return stock == null ? 0 : stock.primes.size();
+    }
+
+    /* Returns the number of primes the pool keeps ready per size */
+    public int capacity() {
+        return depth;
+    }
+
+    /* Returns the number of n-bit primes the background threads have made so far */
+    public long generated(int n) {
+        Stock stock = stocks.get(n);
+        return stock == null ? 0 : stock.generated.get();
+    }
+
+    /* refillRate()
+     *
+     * ~ Returns how many n-bit primes the pool puts back per second while it is refilling:
+     *   primes made per second of search time, times the number of background threads.
+     */
+    public double refillRate(int n) {
+        Stock stock = stocks.get(n);
+        if (stock == null)
+            return 0.0;
+
+        long nanos = stock.searchNanos.get();
+        return nanos == 0 ? 0.0 : stock.generated.get() * 1e9 / nanos * fillers.length;
+    }
+
+    /* Returns the number of take() calls served from the pool */
+    public long hits() {
+        return hits.get();
+    }
+
+    /* Returns the number of take() calls that had to search for their prime */
+    public long misses() {
+        return misses.get();
+    }
+
+    /* Stops the background threads; primes already in the pool can still be taken */
+    public void close() {
+        running = false;
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    public String toString() {
+        StringBuilder out = new StringBuilder("PrimePool[");
+        for (Stock stock : stocks.values())
+            out.append(stock.bits).append("-bit=").append(stock.primes.size()).append("/").append(depth).append(", ");
+        return out.append("hits=").append(hits).append(", misses=").append(misses).append("]").toString();
+    }
+
+    /* Background thread: keeps searching for whichever size is furthest below its depth */
+    private void fill() {
+        Random rand = new SecureRandom();
+
+        while (running) {
+            Stock stock;
+
+            synchronized (lock) {
+                while ((stock = neediest()) == null && running) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException err) {
+                        return;
+                    }
+                }
+
+                if (stock == null)
+                    return;
+                stock.searching++;
+            }
+
+            long start = System.nanoTime();
+            BigInteger prime = search(stock.bits, rand, () -> !running);
+
+            synchronized (lock) {
+                stock.searching--;
+            }
+
+            if (prime != null) {
+                stock.searchNanos.addAndGet(System.nanoTime() - start);
+                stock.generated.incrementAndGet();
+                stock.primes.offer(prime);
+            }
+        }
+    }
+
+    /* Returns the stock with the most room left once running searches land, or null if none has any */
+    private Stock neediest() {
+        Stock neediest = null;
+        int mostRoom = 0;
+
+        for (Stock stock : stocks.values()) {
+            int room = depth - stock.primes.size() - stock.searching;
+            if (room > mostRoom) {
+                neediest = stock;
+                mostRoom = room;
+            }
+        }
+
+        return neediest;
+    }
+
+    /* Searches for an n-bit prime p with gcd(e, p-1) = 1, or null if cancelled first */
+    private BigInteger search(int n, Random rand, BooleanSupplier cancelled) {
+        while (!cancelled.getAsBoolean()) {
+            BigInteger candidate = ModularArithmetic.genPrime(n, rand, cancelled);
+
+            if (candidate != null && candidate.subtract(BigInteger.ONE).gcd(publicExponent).equals(BigInteger.ONE))
+                return candidate;
+        }
+
+        return null;
+    }
+}
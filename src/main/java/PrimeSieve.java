@@ -0,0 +1,169 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements an incremental sieve for prime searches. It keeps the
+ *              residues of a running candidate modulo the first few thousand odd primes, and
+ *              moves to the next candidate by adding the step to each residue, so only the
+ *              candidates with no small factor ever reach an expensive primality test.
+ *
+ */
+
+
+import java.math.BigInteger;
+
+public class PrimeSieve {
+    /* Number of odd primes kept in the small prime table */
+    public static final int SMALL_PRIME_COUNT = 2048;
+
+    /* The first SMALL_PRIME_COUNT odd primes (3, 5, 7, ...) */
+    public static final int[] SMALL_PRIMES = smallPrimes(SMALL_PRIME_COUNT);
+
+    /* Largest entry of SMALL_PRIMES */
+    public static final int LARGEST_SMALL_PRIME = SMALL_PRIMES[SMALL_PRIMES.length - 1];
+
+    /* Starting point of the walk, and how far past it the current candidate is */
+    private final BigInteger start;
+    private long offset;
+
+    /* residues[i] = (start + offset) mod SMALL_PRIMES[i] */
+    private final int[] residues;
+
+    /*
+     *  PrimeSieve(BigInteger)
+     *
+     *  ~ Starts a walk at the given (positive) candidate.
+     */
+    public PrimeSieve(BigInteger start) {
+        this.start = start;
+        this.residues = residues(start);
+    }
+
+    /* Returns the current candidate */
+    public BigInteger candidate() {
+        return start.add(BigInteger.valueOf(offset));
+    }
+
+    /* Returns how far the walk has moved from its starting point */
+    public long offset() {
+        return offset;
+    }
+
+    /*
+     * Returns true if the current candidate has no factor in the small prime table. The
+     * candidate must be larger than LARGEST_SMALL_PRIME, or a small prime itself would be
+     * reported as composite.
+     */
+    public boolean survives() {
+        for (int residue : residues)
+            if (residue == 0)
+                return false;
+
+        return true;
+    }
+
+    /*
+     * Returns true if neither the current candidate q nor 2q + 1 has a factor in the small
+     * prime table, for safe prime searches. 2q + 1 is a multiple of a small prime r exactly
+     * when q = (r - 1) / 2 (mod r), so both come out of the same residues.
+     */
+    public boolean survivesDoubled() {
+        for (int i = 0; i < residues.length; i++) {
+            int residue = residues[i];
+            if (residue == 0 || residue == SMALL_PRIMES[i] >>> 1)
+                return false;
+        }
+
+        return true;
+    }
+
+    /* Moves to candidate + step (step must be non-negative) by updating every residue with an addition */
+    public void advance(int step) {
+        for (int i = 0; i < residues.length; i++) {
+            int p = SMALL_PRIMES[i];
+            int residue = residues[i] + (step < p ? step : step % p);
+            residues[i] = residue >= p ? residue - p : residue;
+        }
+
+        offset += step;
+    }
+
+    /* Returns the residue of the current candidate modulo SMALL_PRIMES[i] */
+    public int residue(int i) {
+        return residues[i];
+    }
+
+    /*
+     * Computes x mod p for every small prime p, by running Horner's rule over the 32-bit
+     * words of x. That is a handful of long operations per prime and no BigInteger division.
+     */
+    static int[] residues(BigInteger x) {
+        int[] residues = new int[SMALL_PRIMES.length];
+        int[] words = words(x);
+
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            long p = SMALL_PRIMES[i];
+            long r = 0;
+            for (int word : words)
+                r = ((r << 32) | (word & 0xFFFFFFFFL)) % p;
+            residues[i] = (int) r;
+        }
+
+        return residues;
+    }
+
+    /*
+     * Returns the first of the first count small primes that divides x, or 0 if none of
+     * them do.
+     */
+    static int smallFactor(BigInteger x, int count) {
+        int[] words = words(x);
+
+        for (int i = 0; i < count; i++) {
+            long p = SMALL_PRIMES[i];
+            long r = 0;
+            for (int word : words)
+                r = ((r << 32) | (word & 0xFFFFFFFFL)) % p;
+            if (r == 0)
+                return SMALL_PRIMES[i];
+        }
+
+        return 0;
+    }
+
+    /* Splits a non-negative BigInteger into big-endian 32-bit words */
+    private static int[] words(BigInteger x) {
+        byte[] bytes = x.toByteArray();
+        int[] words = new int[(bytes.length + 3) / 4];
+
+        for (int i = 0; i < bytes.length; i++) {
+            int shift = ((bytes.length - 1 - i) & 3) << 3;
+            words[words.length - 1 - (bytes.length - 1 - i) / 4] |= (bytes[i] & 0xFF) << shift;
+        }
+
+        return words;
+    }
+
+    /* Returns the first count odd primes, via the sieve of Eratosthenes */
+    private static int[] smallPrimes(int count) {
+        int limit = 32;
+        while (true) {
+            boolean[] composite = new boolean[limit];
+            int[] primes = new int[count];
+            int found = 0;
+
+            for (int i = 3; i < limit && found < count; i += 2) {
+                if (composite[i])
+                    continue;
+
+                primes[found++] = i;
+                for (long j = (long) i * i; j < limit; j += 2L * i)
+                    composite[(int) j] = true;
+            }
+
+            if (found == count)
+                return primes;
+
+            limit *= 2;
+        }
+    }
+}
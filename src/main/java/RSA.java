@@ -4,28 +4,228 @@
  *  
  * Description: This class implements several RSA constructors, along with an encryption() and decryption() method
  * 
+ *              Key material is held per instance and never changes after construction, so a
+ *              single RSA object can be shared between threads, and any number of keys can
+ *              live side by side in one JVM (see KeyRegistry).
+ * 
  */
 
 import java.io.*;
 import java.math.BigInteger;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
 
 public class RSA {
+    /* Default public exponent for the small exponent key generation mode (2^16 + 1) */
+    public static final BigInteger DEFAULT_PUBLIC_EXPONENT = BigInteger.valueOf(65537);
+
+    /* Public exponents up to this many bits are handled by the short exponent encrypt path */
+    public static final int SHORT_EXPONENT_BITS = 63;
+
+    /* Largest number of primes multiPrime() will split a modulus into */
+    public static final int MAX_PRIMES = 4;
+
     /* N value */
-    public static BigInteger N;
+    public final BigInteger N;
 
     /* Private Key */
-    private static BigInteger d;
-    /* Public Key */
-    public static BigInteger e;
+    private final BigInteger d;
+    /* Public Key (null for a key read from a private key file alone) */
+    public final BigInteger e;
+
+    /*
+     * CRT components of the private key, kept so decrypt() can work modulo p and q
+     * separately instead of over the full modulus (PKCS #1 notation):
+     *
+     *   dP   = d mod (p-1)
+     *   dQ   = d mod (q-1)
+     *   qInv = q^-1 mod p
+     *
+     * These are null when the key was read from an old two-value private key file.
+     */
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger dP;
+    private final BigInteger dQ;
+    private final BigInteger qInv;
+
+    /*
+     * The third and later primes of a multi-prime key (RFC 8017 section 3.2), with their
+     * CRT exponents and coefficients:
+     *
+     *   d_i = d mod (r_i - 1)
+     *   t_i = (p * q * r_3 * ... * r_(i-1))^-1 mod r_i
+     *
+     * These are empty for an ordinary two-prime key.
+     */
+    private final BigInteger[] otherPrimes;
+    private final BigInteger[] otherExponents;
+    private final BigInteger[] otherCoefficients;
+
+    /*
+     * This key's own precomputed state (its exponents recoded once, see ExponentPlan, and
+     * the Montgomery contexts for N and the primes), used by the methods that aren't handed
+     * a KeyContext. Built on first use, so that keys only ever used through a KeyRegistry
+     * don't carry a second copy next to the one in its ContextCache.
+     */
+    private volatile KeyContext context;
 
     /*  Generates a public (N, e) and private (N, d) RSA key pair, where N, e, d
         are numbers of approximately n bits in length. the private key is stored
-        as a private field of the class and the public key is printed to standard
-        output.
+        as a private field of the class.
      */
     public RSA(int n) {
+        this(randomExponentKey(n));
+    }
+
+    /* 
+     *  RSA(int, String, String)
+     * 
+     *  ~ This method constructs an RSA object, given a specific input, n. 
+     *    It also generates and reads out the private and public keys to the
+     *    filenames passed in. It expects the privateFile to be the first arg
+     *    and the publicFile to be the second arg.
+     */
+    public RSA(int n, String privateFile, String publicFile) throws IOException { 
+        /* Borrows constructor definition from above */
+        this(n);
+
+        writeKeyFiles(privateFile, publicFile);
+    }
+
+    /*
+     *  RSA(int, BigInteger)
+     *
+     *  ~ Generates a key pair with the given small, fixed public exponent (usually
+     *    DEFAULT_PUBLIC_EXPONENT) instead of a random one as long as s. p & q are
+     *    regenerated until gcd(e, (p-1)(q-1)) = 1, so that d exists.
+     */
+    public RSA(int n, BigInteger publicExponent) {
+        this(fixedExponentKey(n, publicExponent));
+    }
+
+    /*
+     *  RSA(BigInteger, BigInteger, BigInteger)
+     *
+     *  ~ Builds a key pair from two known, distinct primes p & q and a public exponent
+     *    that is coprime to (p-1)(q-1). Nothing is printed.
+     */
+    public RSA(BigInteger p, BigInteger q, BigInteger publicExponent) {
+        this(keyComponents(p, q, publicExponent));
+    }
+
+    /*
+     *  RSA(int, BigInteger, String, String)
+     *
+     *  ~ Same as RSA(int, String, String), but with a small fixed public exponent.
+     */
+    public RSA(int n, BigInteger publicExponent, String privateFile, String publicFile) throws IOException {
+        this(n, publicExponent);
+
+        writeKeyFiles(privateFile, publicFile);
+    }
+
+    /*
+     *  RSA(PrimePool, int)
+     *
+     *  ~ Builds a key pair from two n-bit primes taken from the pool, with the pool's public
+     *    exponent. This only waits on a prime search if the pool has run dry. Nothing is
+     *    printed.
+     */
+    public RSA(PrimePool pool, int n) {
+        this(pooledKey(pool, n));
+    }
+
+    /*
+     *  RSA(PrimePool, int, String, String)
+     *
+     *  ~ Same as RSA(PrimePool, int), also writing the key files like RSA(int, String, String).
+     */
+    public RSA(PrimePool pool, int n, String privateFile, String publicFile) throws IOException {
+        this(pool, n);
+
+        writeKeyFiles(privateFile, publicFile);
+    }
+
+    /* Reads in the private key stored in the file "filename" */
+    public RSA(String filename) throws IOException {
+        this(readPrivateKeyFile(filename));
+    }
+
+    /*
+     *  RSA(BigInteger, BigInteger, BigInteger, BigInteger, BigInteger, BigInteger, BigInteger, BigInteger)
+     *
+     *  ~ Rebuilds a key from stored components (see BinaryKeyStore). e may be null for a
+     *    private-only key, and p, q, dP, dQ & qInv may all be null for a key without CRT data.
+     */
+    public RSA(BigInteger N, BigInteger e, BigInteger d, BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ, BigInteger qInv) {
+        this(new BigInteger[] { N, e, d, p, q, dP, dQ, qInv });
+    }
+
+    /*
+     *  RSA(BigInteger[])
+     *
+     *  ~ Unpacks the array returned by components() (or one of the key builders below):
+     *    { N, e, d, p, q, dP, dQ, qInv }, followed by one (r_i, d_i, t_i) triple for every
+     *    prime past the second in a multi-prime key.
+     */
+    RSA(BigInteger[] components) {
+        if (components.length < 8 || (components.length - 8) % 3 != 0)
+            throw new IllegalArgumentException("Malformed key components");
+
+        BigInteger p = components[3];
+
+        this.N = components[0];
+        this.e = components[1];
+        this.d = components[2];
+
+        this.p = p;
+        this.q = p == null ? null : components[4];
+        this.dP = p == null ? null : components[5];
+        this.dQ = p == null ? null : components[6];
+        this.qInv = p == null ? null : components[7];
+
+        int others = p == null ? 0 : (components.length - 8) / 3;
+        this.otherPrimes = new BigInteger[others];
+        this.otherExponents = new BigInteger[others];
+        this.otherCoefficients = new BigInteger[others];
+
+        for (int i = 0; i < others; i++) {
+            otherPrimes[i] = components[8 + 3 * i];
+            otherExponents[i] = components[9 + 3 * i];
+            otherCoefficients[i] = components[10 + 3 * i];
+        }
+    }
+
+    /*
+     *  multiPrime(int, int, BigInteger)
+     *
+     *  ~ Generates a multi-prime key (RFC 8017): a modulus of exactly bits bits, made of
+     *    primes distinct primes of about bits / primes bits each, with the given public
+     *    exponent. Each private operation then works modulo primes smaller moduli, which
+     *    for 3 or 4 primes is noticeably faster than the usual 2. Nothing is printed.
+     */
+    public static RSA multiPrime(int bits, int primes, BigInteger publicExponent) {
+        return new RSA(multiPrimeKey(bits, primes, publicExponent));
+    }
+
+    /*
+     * randomExponentKey(int)
+     *
+     * ~ Generates the components of a key from two n-bit primes and a random prime e about
+     *   as long as s = (p-1)(q-1).
+     */
+    private static BigInteger[] randomExponentKey(int n) {
+        long start = Metrics.start();
+        int attempts = 1;
+
         /* Initialize BigInteger Variables */
         BigInteger p = ModularArithmetic.genPrime(n);
         BigInteger q = ModularArithmetic.genPrime(n);
@@ -34,14 +234,12 @@ public class RSA {
         while(p.equals(q)) {
             p = ModularArithmetic.genPrime(n);
             q = ModularArithmetic.genPrime(n);
+            attempts++;
         }
 
-        BigInteger s;
+        BigInteger s, e;
         BigInteger[] packet;
         
-        
-        /* Set our value of N = pq */
-        N = p.multiply(q);
         /* Set our value of s = (p-1)(q-1) */
         s = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
         /* Set e = some random prime BigInteger where e is 1 < e < s */
@@ -50,40 +248,232 @@ public class RSA {
         packet = ModularArithmetic.extendedEuclid(s, e);
 
         /* 
-         * Here we check to see if the GCD = 1. If it doesn't and e is greater than s,
+         * Here we check to see if the GCD = 1. If it doesn't or e is not less than s,
          * recompute both the GCD and e.
          */
-        while(!packet[2].equals(BigInteger.ONE) && !(e.compareTo(s) == -1)) {
+        while(!packet[2].equals(BigInteger.ONE) || !(e.compareTo(s) == -1)) {
             e = ModularArithmetic.genPrime(s.bitLength() - 2);
             packet = ModularArithmetic.extendedEuclid(s, e);
         }
 
+        return timedKey(keyComponents(p, q, e), attempts, start);
+    }
+
+    /*
+     * fixedExponentKey(int, BigInteger)
+     *
+     * ~ Generates the components of a key from two n-bit primes for a fixed public exponent,
+     *   drawing p & q until gcd(e, (p-1)(q-1)) = 1.
+     */
+    private static BigInteger[] fixedExponentKey(int n, BigInteger publicExponent) {
+        if (publicExponent.compareTo(BigInteger.valueOf(3)) < 0 || !publicExponent.testBit(0))
+            throw new IllegalArgumentException("Public exponent must be odd and at least 3");
+
+        long start = Metrics.start();
+        int attempts = 0;
+        BigInteger p, q, s;
+
+        /* Keep drawing p & q until they're distinct and (p-1)(q-1) is coprime to e */
+        do {
+            attempts++;
+            p = ModularArithmetic.genPrime(n);
+            q = ModularArithmetic.genPrime(n);
+            s = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+        }
+        while (p.equals(q) || !ModularArithmetic.extendedEuclid(s, publicExponent)[2].equals(BigInteger.ONE));
+
+        return timedKey(keyComponents(p, q, publicExponent), attempts, start);
+    }
+
+    /*
+     * pooledKey(PrimePool, int)
+     *
+     * ~ Generates the components of a key from two distinct n-bit primes out of the pool.
+     *   Pooled primes already satisfy gcd(e, p-1) = 1, so only a repeat needs redrawing.
+     */
+    private static BigInteger[] pooledKey(PrimePool pool, int n) {
+        long start = Metrics.start();
+        int attempts = 1;
+
+        BigInteger p = pool.take(n);
+        BigInteger q = pool.take(n);
+
+        while (p.equals(q)) {
+            q = pool.take(n);
+            attempts++;
+        }
+
+        return timedKey(keyComponents(p, q, pool.getPublicExponent()), attempts, start);
+    }
+
+    /*
+     * timedKey(BigInteger[], int, long)
+     *
+     * ~ Reports a finished key generation (see Metrics) and hands its components back
+     */
+    private static BigInteger[] timedKey(BigInteger[] components, int attempts, long start) {
+        Metrics.keyGeneration(components[0].bitLength(), attempts, start);
+        return components;
+    }
+
+    /*
+     * keyComponents(BigInteger, BigInteger, BigInteger)
+     *
+     * ~ Derives { N, e, d, p, q, dP, dQ, qInv } from primes p & q and public exponent e
+     */
+    private static BigInteger[] keyComponents(BigInteger p, BigInteger q, BigInteger e) {
+        BigInteger s = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+
+        if (p.equals(q) || !ModularArithmetic.extendedEuclid(s, e)[2].equals(BigInteger.ONE))
+            throw new IllegalArgumentException("p & q must be distinct and (p-1)(q-1) coprime to e");
+
+        return keyComponents(e, new BigInteger[] { p, q });
+    }
+
+    /*
+     * keyComponents(BigInteger, BigInteger[])
+     *
+     * ~ Derives the components of a key from any number (at least 2) of distinct primes with
+     *   gcd(e, r_i - 1) = 1: { N, e, d, p, q, dP, dQ, qInv }, then (r_i, d_i, t_i) for the
+     *   third prime onwards.
+     */
+    private static BigInteger[] keyComponents(BigInteger e, BigInteger[] primes) {
+        BigInteger N = BigInteger.ONE;
+        BigInteger s = BigInteger.ONE;
+
+        for (BigInteger prime : primes) {
+            N = N.multiply(prime);
+            s = s.multiply(prime.subtract(BigInteger.ONE));
+        }
+
+        if (new HashSet<BigInteger>(Arrays.asList(primes)).size() != primes.length
+                || !ModularArithmetic.extendedEuclid(s, e)[2].equals(BigInteger.ONE))
+            throw new IllegalArgumentException("The primes must be distinct, and e coprime to every r_i - 1");
+
+        BigInteger p = primes[0], q = primes[1];
+
         /* Obtain a value for d */
-        d = ModularArithmetic.moddiv(BigInteger.ONE, e, s);
+        BigInteger d = ModularArithmetic.moddiv(BigInteger.ONE, e, s);
+
+        BigInteger[] components = new BigInteger[8 + 3 * (primes.length - 2)];
+
+        /* Keep p & q around, along with the CRT exponents and coefficient */
+        components[0] = N;
+        components[1] = e;
+        components[2] = d;
+        components[3] = p;
+        components[4] = q;
+        components[5] = d.mod(p.subtract(BigInteger.ONE));
+        components[6] = d.mod(q.subtract(BigInteger.ONE));
+        components[7] = ModularArithmetic.moddiv(BigInteger.ONE, q, p);
+
+        /* Every further prime gets its exponent and the inverse of the primes before it */
+        BigInteger R = p.multiply(q);
+        for (int i = 2; i < primes.length; i++) {
+            BigInteger r = primes[i];
+            components[3 * i + 2] = r;
+            components[3 * i + 3] = d.mod(r.subtract(BigInteger.ONE));
+            components[3 * i + 4] = ModularArithmetic.moddiv(BigInteger.ONE, R, r);
+            R = R.multiply(r);
+        }
 
-        /* In the case d is negative, handle it. */
-        if(d.compareTo(BigInteger.ZERO) == -1) d = d.add(s);
-        
-        /* Outputs the Public Key */
-        System.out.println("Public Key: " + e);
+        return components;
+    }
 
-        /* Debug */
-        printValues(p, q, N, s, e, d);
+    /*
+     * multiPrimeKey(int, int, BigInteger)
+     *
+     * ~ Generates the components of a bits-bit key made of the given number of primes. The
+     *   sizes are split as evenly as possible; if the product comes out a bit short, the last
+     *   prime is redrawn a few times, and then the whole set.
+     */
+    private static BigInteger[] multiPrimeKey(int bits, int count, BigInteger publicExponent) {
+        if (publicExponent.compareTo(BigInteger.valueOf(3)) < 0 || !publicExponent.testBit(0))
+            throw new IllegalArgumentException("Public exponent must be odd and at least 3");
+        if (count < 2 || count > MAX_PRIMES)
+            throw new IllegalArgumentException("A key must have between 2 and " + MAX_PRIMES + " primes");
+        if (bits / count < 64)
+            throw new IllegalArgumentException("Primes must be at least 64 bits long");
+
+        long start = Metrics.start();
+        int attempts = 0;
+        BigInteger[] primes = new BigInteger[count];
+
+        while (true) {
+            BigInteger product = BigInteger.ONE;
+            int remaining = bits;
+
+            for (int i = 0; i < count - 1; i++) {
+                int size = remaining / (count - i);
+                primes[i] = otherPrime(size, publicExponent, primes, i);
+                product = product.multiply(primes[i]);
+                remaining -= size;
+            }
+
+            for (int attempt = 0; attempt < count; attempt++) {
+                primes[count - 1] = otherPrime(remaining, publicExponent, primes, count - 1);
+                attempts++;
 
+                if (product.multiply(primes[count - 1]).bitLength() == bits)
+                    return timedKey(keyComponents(publicExponent, primes), attempts, start);
+            }
+        }
     }
 
-    /* 
-     *  RSA(int, String, String)
-     * 
-     *  ~ This method constructs an RSA object, given a specific input, n. 
-     *    It also generates and reads out the private and public keys to the
-     *    filenames passed in. It expects the privateFile to be the first arg
-     *    and the publicFile to be the second arg.
+    /* Draws an n-bit prime r with gcd(e, r-1) = 1 that differs from the first count primes */
+    private static BigInteger otherPrime(int n, BigInteger e, BigInteger[] primes, int count) {
+        while (true) {
+            BigInteger r = ModularArithmetic.genPrime(n);
+
+            if (!r.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE))
+                continue;
+            if (!Arrays.asList(primes).subList(0, count).contains(r))
+                return r;
+        }
+    }
+
+    /*
+     * readPrivateKeyFile(String)
+     *
+     * ~ Reads N, d and (if present) p, q, dP, dQ & qInv from a private key file, followed
+     *   by r_i, d_i & t_i for each further prime of a multi-prime key.
      */
-    public RSA(int n, String privateFile, String publicFile) throws IOException { 
-        /* Borrows constructor definition from above */
-        this(n);
-        
+    private static BigInteger[] readPrivateKeyFile(String filename) throws IOException {
+        File directory = new File(".");
+        File file = new File(directory.getCanonicalPath() + File.separator + filename);
+
+        List<BigInteger> components = new ArrayList<BigInteger>(Collections.nCopies(8, (BigInteger) null));
+
+        Scanner sc = new Scanner(file);
+
+        /* Pulls off the first value from the file, which is N */
+        components.set(0, sc.nextBigInteger());
+
+        /* Pulls off the second value from the file, which is the private key */
+        components.set(2, sc.nextBigInteger());
+
+        /* Newer key files follow with p, q, dP, dQ & qInv; older ones stop after d */
+        if (sc.hasNextBigInteger()) {
+            for (int i = 3; i < 8; i++)
+                components.set(i, sc.nextBigInteger());
+
+            /* Multi-prime keys carry on with a (r_i, d_i, t_i) triple per extra prime */
+            while (sc.hasNextBigInteger())
+                components.add(sc.nextBigInteger());
+        }
+
+        sc.close();
+
+        return components.toArray(new BigInteger[0]);
+    }
+
+    /*
+     *  writeKeyFiles(String, String)
+     *
+     *  ~ Writes the private key (N, d, p, q, dP, dQ, qInv, and r_i, d_i, t_i for every
+     *    further prime) and the public key (N, e) out to the given files, one value per line.
+     */
+    private void writeKeyFiles(String privateFile, String publicFile) throws IOException {
         /* Wrapped in a try/catch block to handle and report any I/O errors */
         try {
             /* Simple File IO, opening it, etc... */
@@ -112,6 +502,17 @@ public class RSA {
             /* Write out privateKey, then publicKey */
             privateBufferedWriter.write(String.valueOf(this.d));
             publicBufferedWriter.write(String.valueOf(this.e));
+
+            /* The private key file also carries p, q, dP, dQ & qInv (one per line) for CRT decryption */
+            BigInteger[] crt = { this.p, this.q, this.dP, this.dQ, this.qInv };
+            for (BigInteger value : crt)
+                privateBufferedWriter.write("\n" + String.valueOf(value));
+
+            for (int i = 0; i < otherPrimes.length; i++) {
+                BigInteger[] other = { otherPrimes[i], otherExponents[i], otherCoefficients[i] };
+                for (BigInteger value : other)
+                    privateBufferedWriter.write("\n" + String.valueOf(value));
+            }
             
             /* Lastly, close our files */
             privateBufferedWriter.close();
@@ -122,31 +523,32 @@ public class RSA {
         }
     }
 
+    /*
+     * components()
+     *
+     * ~ Returns the key as { N, e, d, p, q, dP, dQ, qInv }, followed by (r_i, d_i, t_i) for
+     *   every further prime, in the order RSA(BigInteger[]) takes them. Missing values are null.
+     */
+    BigInteger[] components() {
+        BigInteger[] components = Arrays.copyOf(new BigInteger[] { N, e, d, p, q, dP, dQ, qInv }, 8 + 3 * otherPrimes.length);
 
-    /* Reads in the private key stored in the file "filename" */
-    public RSA(String filename) throws IOException {
-        File directory = new File(".");
-        File file = new File(directory.getCanonicalPath() + File.separator + filename);
-
-        try {
-
-            Scanner sc = new Scanner(file);
+        for (int i = 0; i < otherPrimes.length; i++) {
+            components[8 + 3 * i] = otherPrimes[i];
+            components[9 + 3 * i] = otherExponents[i];
+            components[10 + 3 * i] = otherCoefficients[i];
+        }
 
-            /* Pulls off the first value from the file, which is N */
-            this.N = sc.nextBigInteger();
-            System.out.println("Read in N: " + this.N);
-            
-            /* Pulls off the second value from the file, which is the private key */
-            BigInteger privateKey = sc.nextBigInteger();
+        return components;
+    }
 
-            System.out.println("Read in Private Key: " + privateKey);
-            this.d = privateKey;
+    /* Returns true if this key carries the CRT components */
+    public boolean hasCrtComponents() {
+        return p != null;
+    }
 
-            sc.close();
-        }
-        catch (FileNotFoundException err) {
-            err.printStackTrace();
-        }
+    /* Returns the number of primes the modulus is known to split into (0 without CRT data) */
+    public int primeCount() {
+        return p == null ? 0 : 2 + otherPrimes.length;
     }
 
     /* 
@@ -154,88 +556,316 @@ public class RSA {
      * c = m^e (mod N)
      */
     public BigInteger encrypt(BigInteger m, BigInteger N, BigInteger e) {
-        BigInteger encrypted_message = ModularArithmetic.modexp(m, e, N);
+        /* Under this key's own public key, the recoded exponent and context are already at hand */
+        if (this.e != null && e.equals(this.e) && N.equals(this.N))
+            return encrypt(m, context());
+
+        long start = Metrics.start();
+        BigInteger encrypted_message;
+
+        /* Other short exponents (e.g. 65537) skip the window setup */
+        if (e.signum() > 0 && e.bitLength() <= SHORT_EXPONENT_BITS && N.testBit(0))
+            encrypted_message = new Montgomery(N).modexpShort(m, e.longValue());
+        else
+            encrypted_message = ModularArithmetic.modexp(m, e, N);
+
+        Metrics.encrypt(N.bitLength(), start);
         return encrypted_message;
     }
 
+    /*
+     * Same as above under this key's own public key, using the precomputed state in
+     * context (see KeyContext / KeyRegistry) instead of setting it up on every call.
+     * Throws an IllegalStateException if this key has no public exponent.
+     */
+    public BigInteger encrypt(BigInteger m, KeyContext context) {
+        if (this.e == null)
+            throw new IllegalStateException("Key has no public exponent");
+        checkContext(context);
+
+        long start = Metrics.start();
+        BigInteger c = context.e().modexp(m);
+
+        Metrics.encrypt(N.bitLength(), start);
+        return c;
+    }
+
     /* 
      * For an integer c < N, use the private key to return the decrypted message
      * m = c^d (mod N)
+     *
+     * When the CRT components are known, this is done with two half-size
+     * exponentiations (mod p and mod q) which are then recombined with Garner's formula:
+     *
+     *   m1 = c^dP (mod p)
+     *   m2 = c^dQ (mod q)
+     *   h  = qInv * (m1 - m2) (mod p)
+     *   m  = m2 + h * q
+     *
+     * A multi-prime key then folds in each further prime r_i the same way (RFC 8017
+     * section 5.1.2), where R is the product of the primes before r_i:
+     *
+     *   m_i = c^d_i (mod r_i)
+     *   h   = t_i * (m_i - m) (mod r_i)
+     *   m   = m + R * h
      */
     public BigInteger decrypt(BigInteger c) {
-        BigInteger decrypted_message = ModularArithmetic.modexp(c, this.d, this.N);
+        return decrypt(c, context());
+    }
+
+    /*
+     * Same as above, using the precomputed state in context (see KeyContext / KeyRegistry)
+     * rather than this key's own.
+     */
+    public BigInteger decrypt(BigInteger c, KeyContext context) {
+        checkContext(context);
+        long start = Metrics.start();
+
+        if (this.p == null) {
+            BigInteger m = context.d().modexp(c);
+            Metrics.decrypt(N.bitLength(), start);
+            return m;
+        }
+
+        BigInteger m1 = context.dP().modexp(c);
+        BigInteger m2 = context.dQ().modexp(c);
+
+        BigInteger[] others = new BigInteger[otherPrimes.length];
+        for (int i = 0; i < others.length; i++)
+            others[i] = context.other(i).modexp(c);
+
+        BigInteger m = recombine(m1, m2, others);
+        Metrics.decrypt(N.bitLength(), start);
+        return m;
+    }
+
+    /*
+     * Same as above, blinded with a pair from blinding (see BlindingPool), so that the time the
+     * private key operation takes doesn't depend on c.
+     */
+    public BigInteger decrypt(BigInteger c, KeyContext context, BlindingPool blinding) {
+        return blinding.decrypt(this, c, context);
+    }
+
+    /*
+     * decryptAll(BigInteger[], KeyContext)
+     *
+     * ~ Decrypts a whole batch of ciphertexts at once. Every exponentiation of the batch
+     *   (per prime, with the CRT) goes through MontgomeryBatch, which runs them side by side
+     *   in SIMD lanes when the Vector API is available; the results are then recombined
+     *   one by one as in decrypt().
+     */
+    public BigInteger[] decryptAll(BigInteger[] ciphertexts, KeyContext context) {
+        checkContext(context);
+        long start = Metrics.start();
+
+        if (this.p == null) {
+            BigInteger[] decrypted = context.d().modexpAll(ciphertexts);
+            Metrics.decrypt(N.bitLength(), ciphertexts.length, start);
+            return decrypted;
+        }
+
+        BigInteger[] m1 = context.dP().modexpAll(ciphertexts);
+        BigInteger[] m2 = context.dQ().modexpAll(ciphertexts);
+
+        BigInteger[][] others = new BigInteger[otherPrimes.length][];
+        for (int i = 0; i < others.length; i++)
+            others[i] = context.other(i).modexpAll(ciphertexts);
+
+        BigInteger[] decrypted = new BigInteger[ciphertexts.length];
+        BigInteger[] mi = new BigInteger[others.length];
+
+        for (int j = 0; j < decrypted.length; j++) {
+            for (int i = 0; i < others.length; i++)
+                mi[i] = others[i][j];
+            decrypted[j] = recombine(m1[j], m2[j], mi);
+        }
+
+        Metrics.decrypt(N.bitLength(), decrypted.length, start);
+        return decrypted;
+    }
+
+    /*
+     * Returns this key's own context, building it the first time it is needed, and again
+     * once a different Calibration profile has been installed
+     */
+    KeyContext context() {
+        KeyContext built = context;
+        if (built == null || !built.isCurrent())
+            context = built = new KeyContext(this);
+        return built;
+    }
+
+    /* Throws an IllegalArgumentException unless context was built for this very key */
+    private void checkContext(KeyContext context) {
+        if (context.key() != this)
+            throw new IllegalArgumentException("Key context belongs to a different key");
+    }
+
+    /*
+     * Garner's recombination of m1 = m mod p and m2 = m mod q into m mod pq, then of each
+     * others[i] = m mod r_i into m mod (pq * r_3 * ... * r_i)
+     */
+    private BigInteger recombine(BigInteger m1, BigInteger m2, BigInteger[] others) {
+        BigInteger h = ModularArithmetic.modmult(this.qInv, m1.subtract(m2), this.p);
+
+        BigInteger decrypted_message = m2.add(h.multiply(this.q));
+
+        BigInteger R = this.p.multiply(this.q);
+        for (int i = 0; i < others.length; i++) {
+            h = ModularArithmetic.modmult(otherCoefficients[i], others[i].subtract(decrypted_message), otherPrimes[i]);
+            decrypted_message = decrypted_message.add(R.multiply(h));
+            R = R.multiply(otherPrimes[i]);
+        }
+
         return decrypted_message;
     }
 
+    /*
+     * encryptFile(String, String, BigInteger, BigInteger)
+     *
+     * ~ Encrypts the file inputFile under the public key (N, e) and writes the ciphertext
+     *   to outputFile. Files of any size are streamed through in modulus-sized blocks.
+     */
+    public void encryptFile(String inputFile, String outputFile, BigInteger N, BigInteger e) throws IOException {
+        FileCipher.encrypt(Paths.get(inputFile), Paths.get(outputFile), N, m -> encrypt(m, N, e));
+    }
+
+    /*
+     * decryptFile(String, String)
+     *
+     * ~ Decrypts a file written by encryptFile() with the private key, into outputFile.
+     */
+    public void decryptFile(String inputFile, String outputFile) throws IOException {
+        KeyContext context = new KeyContext(this);
+        FileCipher.decrypt(Paths.get(inputFile), Paths.get(outputFile), N, c -> decrypt(c, context));
+    }
+
+    /*
+     * hybridEncryptFile(String, String, BigInteger, BigInteger)
+     *
+     * ~ Encrypts the file inputFile under the public key (N, e) with HybridCipher: the key
+     *   only wraps a random AES key, so this costs one modexp however large the file is.
+     */
+    public void hybridEncryptFile(String inputFile, String outputFile, BigInteger N, BigInteger e) throws IOException {
+        try (InputStream in = new FileInputStream(inputFile);
+             OutputStream out = new FileOutputStream(outputFile)) {
+            HybridCipher.encrypt(in, out, N, m -> encrypt(m, N, e));
+        }
+    }
+
+    /*
+     * hybridDecryptFile(String, String)
+     *
+     * ~ Decrypts a file written by hybridEncryptFile() with the private key, into outputFile.
+     */
+    public void hybridDecryptFile(String inputFile, String outputFile) throws IOException {
+        try (InputStream in = new FileInputStream(inputFile);
+             OutputStream out = new FileOutputStream(outputFile)) {
+            HybridCipher.decrypt(in, out, N, this::decrypt);
+        }
+    }
+
+    /*
+     * hybridEncrypt(ByteBuffer, BigInteger, BigInteger)
+     *
+     * ~ Encrypts the remaining bytes of data under the public key (N, e) with HybridCipher
+     */
+    public ByteBuffer hybridEncrypt(ByteBuffer data, BigInteger N, BigInteger e) {
+        return HybridCipher.encrypt(data, N, m -> encrypt(m, N, e));
+    }
+
+    /*
+     * hybridDecrypt(ByteBuffer)
+     *
+     * ~ Decrypts a buffer written by hybridEncrypt() with the private key
+     */
+    public ByteBuffer hybridDecrypt(ByteBuffer data) {
+        return HybridCipher.decrypt(data, N, this::decrypt);
+    }
+
+    /*
+     * encryptMessage(String, BigInteger, BigInteger)
+     *
+     * ~ Encodes any text with MessageCodec (UTF-8, modulus-sized blocks) and encrypts every
+     *   block under the public key (N, e).
+     */
+    public BigInteger[] encryptMessage(String message, BigInteger N, BigInteger e) {
+        BigInteger[] blocks = MessageCodec.encode(message, N);
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = encrypt(blocks[i], N, e);
+        return blocks;
+    }
+
+    /*
+     * decryptMessage(BigInteger[])
+     *
+     * ~ Decrypts the blocks from encryptMessage() and decodes them back into text. Throws an
+     *   IllegalArgumentException if they don't decode.
+     */
+    public String decryptMessage(BigInteger[] encrypted) {
+        BigInteger[] blocks = new BigInteger[encrypted.length];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = decrypt(encrypted[i]);
+        return MessageCodec.decode(blocks);
+    }
+
+    /*
+     * sign(byte[])
+     *
+     * ~ Signs message with the private key: hashes and encodes it with SignatureCodec
+     *   (PKCS #1 v1.5, SHA-256), then decrypts the encoding, using the CRT where possible.
+     */
+    public BigInteger sign(byte[] message) {
+        return decrypt(SignatureCodec.encode(message, N));
+    }
+
+    /*
+     * sign(byte[], KeyContext)
+     *
+     * ~ Same as above, using the precomputed state in context
+     */
+    public BigInteger sign(byte[] message, KeyContext context) {
+        return decrypt(SignatureCodec.encode(message, N), context);
+    }
+
+    /*
+     * verify(byte[], BigInteger, BigInteger, BigInteger)
+     *
+     * ~ Returns true if signature is a valid signature of message under the public key
+     *   (N, e). Raising the signature to e goes down the same short exponent path as
+     *   encrypt(). To check many signatures under one key, use a BatchVerifier.
+     */
+    public boolean verify(byte[] message, BigInteger signature, BigInteger N, BigInteger e) {
+        if (signature.signum() <= 0 || signature.compareTo(N) >= 0)
+            return false;
+
+        return encrypt(signature, N, e).equals(SignatureCodec.encode(message, N));
+    }
+
     /*
      * paddingScheme(string message)
      * 
      * ~ Takes in a message and encodes using the following padding scheme below.
+     *   (Legacy decimal scheme; see MessageCodec.legacyEncode.)
      * 
      * via @Dr.Pauca 
      */
     public BigInteger paddingScheme(String message) {
-        int c;
-        String intMessage = "";  // corresponding integer message to encrypt
-
-        for(int i = 0; i < message.length(); i++)
-        {
-            c = message.charAt(i);
-            intMessage = intMessage + String.format("%1$03d", c);
-        }
-
-        return new BigInteger(intMessage);
+        return MessageCodec.legacyEncode(message);
     }
 
     /*
      * depaddingScheme(string message)
      * 
      * ~ Takes in a message and decodes using the following depadding scheme below.
+     *   (Legacy decimal scheme; see MessageCodec.legacyDecode.) Throws an
+     *   IllegalArgumentException on bad input rather than exiting.
      * 
      * via @Dr. Pauca
      */
     public String depaddingScheme(BigInteger msg) {
-        //String encodedMessage = msg.toString();
-
-        String encodedMessage = msg.toString();
-
-        if (encodedMessage.length() % 3 == 1)
-        {
-            System.out.println("error in decryption");
-            System.exit(0);
-        }
-        else if (encodedMessage.length() % 3 == 2)
-            encodedMessage = "0"+encodedMessage;
-
-        String decryptedMessage = "";
-        int a = 0;
-        int b = 0;
-        for (int i = 0; i < encodedMessage.length()/3; i++)
-        {
-            a = encodedMessage.charAt(3*i);   // decimal of charAt(3*i)
-            // e.g. 48 for '1', 52 for '4'
-            a = (a-48)*100;
-            b = encodedMessage.charAt(3*i+1);
-            a += (b-48)*10;
-            b = encodedMessage.charAt(3*i+2);
-            a += (b-48);
-            decryptedMessage += (char)a;
-        }
-
-        return decryptedMessage;
-    }
-
-    /* 
-     * A simple helper method to display values of p, q, N, s, e, & d.
-     * (mainly to be used via debugging)
-     */
-    public void printValues(BigInteger p, BigInteger q, BigInteger N, BigInteger s, BigInteger e, BigInteger d) {
-        System.out.println("p: " + p);
-        System.out.println("q: " + q);
-        System.out.println("n: " + N);
-        System.out.println("s: " + s);
-        System.out.println("e: " + e);
-        System.out.println("d: " + d);
+        return MessageCodec.legacyDecode(msg);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class is a small socket front end for RSAService, meant for load testing
+ *              on one box. It listens on the loopback interface only, and speaks a line
+ *              protocol, with numbers in hexadecimal:
+ *
+ *                ENC <keyId> <m>   ->   OK <c>
+ *                DEC <keyId> <c>   ->   OK <m>
+ *                                  ->   ERR <message>   (on any failure)
+ *
+ *              Usage: java RSAServer <keystore file> [port]
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class RSAServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 7443;
+
+    private final RSAService service;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    /*
+     *  RSAServer(RSAService, int)
+     *
+     *  ~ Binds to the given port on the loopback interface (0 picks a free port)
+     */
+    public RSAServer(RSAService service, int port) throws IOException {
+        this.service = service;
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    }
+
+    /* Returns the port the server is listening on */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /* serve()
+     *
+     * ~ Accepts connections until the server is closed, handling each on its own thread
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (IOException err) {
+                if (serverSocket.isClosed())
+                    return;
+                throw err;
+            }
+
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /* Answers one request line at a time until the client hangs up */
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                out.println(respond(line));
+            }
+        }
+        catch (IOException err) {
+            /* Client went away; nothing else to do */
+        }
+    }
+
+    /* Turns one request line into its response line */
+    String respond(String line) {
+        String[] parts = line.trim().split("\\s+");
+
+        if (parts.length != 3)
+            return "ERR expected: ENC|DEC <keyId> <hex>";
+
+        RSAService.Operation operation;
+        if (parts[0].equalsIgnoreCase("ENC"))
+            operation = RSAService.Operation.ENCRYPT;
+        else if (parts[0].equalsIgnoreCase("DEC"))
+            operation = RSAService.Operation.DECRYPT;
+        else
+            return "ERR unknown operation " + parts[0];
+
+        try {
+            BigInteger value = new BigInteger(parts[2], 16);
+            return "OK " + service.submit(parts[1], operation, value).get().toString(16);
+        }
+        catch (NumberFormatException err) {
+            return "ERR not a hexadecimal number";
+        }
+        catch (ExecutionException err) {
+            return "ERR " + err.getCause().getMessage();
+        }
+        catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            return "ERR interrupted";
+        }
+        catch (RuntimeException err) {
+            return "ERR " + err.getMessage();
+        }
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java RSAServer <keystore file> [port]");
+            return;
+        }
+
+        BinaryKeyStore keyStore = BinaryKeyStore.open(Paths.get(args[0]));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+
+        KeyRegistry registry = new KeyRegistry(keyStore::get, KeyRegistry.DEFAULT_CACHE_BYTES);
+
+        try (RSAService service = new RSAService(registry);
+             RSAServer server = new RSAServer(service, port)) {
+            System.out.println("Serving " + keyStore.size() + " keys on 127.0.0.1:" + server.getPort());
+            server.serve();
+        }
+    }
+}
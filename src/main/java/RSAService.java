@@ -0,0 +1,270 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class runs encrypt / decrypt requests for the keys in a KeyRegistry on a
+ *              pool of worker threads. Requests are queued, a dispatcher thread groups whatever
+ *              is waiting by key into batches (so each batch looks its KeyContext up once), and
+ *              the batches are run on a fork-join pool sized to the cores. The number of
+ *              requests in flight is bounded: once the limit is reached, submit() blocks and
+ *              trySubmit() fails fast, which pushes back on callers instead of queueing
+ *              without limit.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class RSAService implements AutoCloseable {
+    public enum Operation { ENCRYPT, DECRYPT }
+
+    /* Default limit on requests in flight, and on requests per batch */
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /* One queued request */
+    private static final class Request {
+        final String keyId;
+        final Operation operation;
+        final BigInteger value;
+        final CompletableFuture<BigInteger> result = new CompletableFuture<BigInteger>();
+
+        Request(String keyId, Operation operation, BigInteger value) {
+            this.keyId = keyId;
+            this.operation = operation;
+            this.value = value;
+        }
+    }
+
+    private final KeyRegistry registry;
+    private final int capacity;
+    private final int maxBatch;
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+    /* One permit per request that may be in flight (queued or running) */
+    private final Semaphore permits;
+
+    private final ForkJoinPool workers;
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    /*
+     *  RSAService(KeyRegistry)
+     *
+     *  ~ A service with the default limits and one worker per core
+     */
+    public RSAService(KeyRegistry registry) {
+        this(registry, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+     *  RSAService(KeyRegistry, int, int, int)
+     *
+     *  ~ A service allowing capacity requests in flight, running at most maxBatch requests
+     *    per batch on the given number of worker threads.
+     */
+    public RSAService(KeyRegistry registry, int capacity, int maxBatch, int threads) {
+        if (capacity < 1 || maxBatch < 1 || threads < 1)
+            throw new IllegalArgumentException("capacity, maxBatch and threads must all be positive");
+
+        this.registry = registry;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.permits = new Semaphore(capacity);
+        this.workers = new ForkJoinPool(threads);
+
+        this.dispatcher = new Thread(this::dispatch, "rsa-service-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /* Encrypts m under the given key, blocking while the service is at capacity */
+    public CompletableFuture<BigInteger> encrypt(String keyId, BigInteger m) throws InterruptedException {
+        return submit(keyId, Operation.ENCRYPT, m);
+    }
+
+    /* Decrypts c with the given key, blocking while the service is at capacity */
+    public CompletableFuture<BigInteger> decrypt(String keyId, BigInteger c) throws InterruptedException {
+        return submit(keyId, Operation.DECRYPT, c);
+    }
+
+    /* submit()
+     *
+     * ~ Queues a request, waiting for room if the service is at capacity. Don't call this
+     *   from a callback on one of the returned futures: that runs on a worker thread, and
+     *   blocking a worker while the service is full can stall it for good. Use trySubmit()
+     *   there instead.
+     */
+    public CompletableFuture<BigInteger> submit(String keyId, Operation operation, BigInteger value) throws InterruptedException {
+        checkRunning();
+        permits.acquire();
+        return enqueue(new Request(keyId, operation, value));
+    }
+
+    /* trySubmit()
+     *
+     * ~ Queues a request if there is room right now; otherwise returns a future that has
+     *   already failed with a RejectedExecutionException.
+     */
+    public CompletableFuture<BigInteger> trySubmit(String keyId, Operation operation, BigInteger value) {
+        checkRunning();
+
+        if (!permits.tryAcquire()) {
+            CompletableFuture<BigInteger> rejected = new CompletableFuture<BigInteger>();
+            rejected.completeExceptionally(new RejectedExecutionException("RSA service is at capacity"));
+            return rejected;
+        }
+
+        return enqueue(new Request(keyId, operation, value));
+    }
+
+    /* Returns the number of requests currently queued or running */
+    public int inFlight() {
+        return capacity - permits.availablePermits();
+    }
+
+    /* Returns the number of requests waiting for the dispatcher */
+    public int queued() {
+        return queue.size();
+    }
+
+    private CompletableFuture<BigInteger> enqueue(Request request) {
+        /* Give the permit back however the request ends */
+        request.result.whenComplete((value, err) -> permits.release());
+        queue.add(request);
+
+        /* Lost a race with close(): nobody is going to pick this up */
+        if (!running)
+            failQueued();
+
+        return request.result;
+    }
+
+    private void checkRunning() {
+        if (!running)
+            throw new RejectedExecutionException("RSA service has been closed");
+    }
+
+    /* Takes whatever is queued, groups it by key and hands the batches to the workers */
+    private void dispatch() {
+        List<Request> drained = new ArrayList<Request>();
+
+        while (running) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+
+                drained.add(first);
+                queue.drainTo(drained);
+
+                Map<String, List<Request>> byKey = new LinkedHashMap<String, List<Request>>();
+                for (Request request : drained)
+                    byKey.computeIfAbsent(request.keyId, id -> new ArrayList<Request>()).add(request);
+                drained.clear();
+
+                for (Map.Entry<String, List<Request>> entry : byKey.entrySet()) {
+                    List<Request> requests = entry.getValue();
+                    for (int i = 0; i < requests.size(); i += maxBatch) {
+                        List<Request> batch = requests.subList(i, Math.min(i + maxBatch, requests.size()));
+                        workers.execute(() -> run(entry.getKey(), batch));
+                    }
+                }
+            }
+            catch (InterruptedException err) {
+                break;
+            }
+        }
+    }
+
+    /* Runs one batch of requests for the same key, sharing its KeyContext */
+    private void run(String keyId, List<Request> batch) {
+        RSA key;
+        KeyContext context;
+
+        try {
+            key = registry.get(keyId);
+            context = registry.context(keyId, key);
+        }
+        catch (RuntimeException err) {
+            for (Request request : batch)
+                request.result.completeExceptionally(err);
+            return;
+        }
+
+        List<Request> decrypts = new ArrayList<Request>();
+
+        for (Request request : batch) {
+            if (request.operation == Operation.DECRYPT) {
+                decrypts.add(request);
+                continue;
+            }
+
+            try {
+                request.result.complete(key.encrypt(request.value, context));
+            }
+            catch (RuntimeException err) {
+                request.result.completeExceptionally(err);
+            }
+        }
+
+        if (!decrypts.isEmpty())
+            decryptAll(key, context, decrypts);
+    }
+
+    /* Decrypts the whole group in one go, so MontgomeryBatch can run it lane by lane */
+    private void decryptAll(RSA key, KeyContext context, List<Request> decrypts) {
+        BigInteger[] ciphertexts = new BigInteger[decrypts.size()];
+        for (int i = 0; i < ciphertexts.length; i++)
+            ciphertexts[i] = decrypts.get(i).value;
+
+        BigInteger[] results;
+        try {
+            results = key.decryptAll(ciphertexts, context);
+        }
+        catch (RuntimeException err) {
+            for (Request request : decrypts)
+                request.result.completeExceptionally(err);
+            return;
+        }
+
+        for (int i = 0; i < results.length; i++)
+            decrypts.get(i).result.complete(results[i]);
+    }
+
+    /* close()
+     *
+     * ~ Stops taking requests, lets running batches finish, and fails anything still queued
+     */
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+
+        try {
+            dispatcher.join();
+        }
+        catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+        }
+
+        failQueued();
+        workers.shutdown();
+    }
+
+    private void failQueued() {
+        Request request;
+        while ((request = queue.poll()) != null)
+            request.result.completeExceptionally(new RejectedExecutionException("RSA service has been closed"));
+    }
+}
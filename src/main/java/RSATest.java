@@ -0,0 +1,666 @@
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RSATest {
+
+
+    @Test
+    public void testDecrypt_crt() throws Exception {
+        RSA rsa = new RSA(128);
+        BigInteger m = new BigInteger("123456789012345678901234567890");
+        BigInteger c = rsa.encrypt(m, rsa.N, rsa.e);
+        assertEquals(m, rsa.decrypt(c));
+    }
+
+    @Test
+    public void testSmallPublicExponent() throws Exception {
+        RSA rsa = new RSA(256, RSA.DEFAULT_PUBLIC_EXPONENT);
+        assertEquals(RSA.DEFAULT_PUBLIC_EXPONENT, rsa.e);
+        BigInteger m = new BigInteger("98765432109876543210");
+        BigInteger c = rsa.encrypt(m, rsa.N, rsa.e);
+        assertEquals(m.modPow(rsa.e, rsa.N), c);
+        assertEquals(m, rsa.decrypt(c));
+    }
+
+    @Test
+    public void testMessageCodec() throws Exception {
+        BigInteger N = new BigInteger("285044579391958034764329004428399141293");
+        String message = "grant is very cool \u00e9\u4e2d\ud83d\ude80 and long enough to need several blocks";
+        BigInteger[] blocks = MessageCodec.encode(message, N);
+        boolean isTestPassed = blocks.length > 1;
+        for (BigInteger block : blocks)
+            isTestPassed = isTestPassed && block.compareTo(N) < 0;
+        assertEquals(true, isTestPassed);
+        assertEquals(message, MessageCodec.decode(blocks));
+    }
+
+    @Test
+    public void testDepaddingScheme() throws Exception {
+        String message = "grant is very cool";
+        assertEquals(message, MessageCodec.legacyDecode(MessageCodec.legacyEncode(message)));
+        boolean thrown = false;
+        try {
+            MessageCodec.legacyDecode(new BigInteger("1234"));
+        }
+        catch (IllegalArgumentException err) {
+            thrown = true;
+        }
+        assertEquals(true, thrown);
+    }
+
+    @Test
+    public void testFileCipher() throws Exception {
+        RSA rsa = new RSA(BigInteger.probablePrime(256, new java.util.Random(61)),
+                BigInteger.probablePrime(256, new java.util.Random(67)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        int block = MessageCodec.blockSize(rsa.N);
+
+        Path input = Files.createTempFile("plain", ".txt");
+        Path encrypted = Files.createTempFile("cipher", ".rsa");
+        Path decrypted = Files.createTempFile("plain", ".out");
+        try {
+            /* Empty, short, exactly one block, a whole number of blocks, and past one batch */
+            int[] lengths = { 0, 1, block, 3 * block, block * FileCipher.BATCH_BLOCKS, block * FileCipher.BATCH_BLOCKS + 7 };
+            for (int length : lengths) {
+                byte[] data = new byte[length];
+                new java.util.Random(length).nextBytes(data);
+                Files.write(input, data);
+
+                rsa.encryptFile(input.toString(), encrypted.toString(), rsa.N, rsa.e);
+                rsa.decryptFile(encrypted.toString(), decrypted.toString());
+                assertArrayEquals(data, Files.readAllBytes(decrypted));
+            }
+
+            /* A flipped bit in a block, a file cut off mid block, and a file that isn't ours */
+            byte[] ciphertext = Files.readAllBytes(encrypted);
+            byte[] corrupted = ciphertext.clone();
+            corrupted[20] ^= 1;
+            byte[] truncated = Arrays.copyOf(ciphertext, ciphertext.length - 10);
+            byte[] foreign = "not a ciphertext".getBytes(StandardCharsets.UTF_8);
+
+            for (byte[] bad : new byte[][] { corrupted, truncated, foreign }) {
+                Files.write(encrypted, bad);
+                boolean isTestPassed = false;
+                try {
+                    FileCipher.decrypt(encrypted, decrypted, rsa.N, rsa::decrypt);
+                }
+                catch (IOException err) {
+                    isTestPassed = true;
+                }
+                assertEquals(true, isTestPassed);
+            }
+        }
+        finally {
+            Files.delete(input);
+            Files.delete(encrypted);
+            Files.delete(decrypted);
+        }
+    }
+
+    @Test
+    public void testBinaryKeyStore() throws Exception {
+        Path dir = Files.createTempDirectory("keystore");
+        Path file = dir.resolve("keys.bin");
+        Path privateFile = dir.resolve("private.txt");
+        Path publicFile = dir.resolve("public.txt");
+        Path legacyFile = dir.resolve("legacy.txt");
+        try {
+            /* A full key, and the same key imported from text key files with and without its CRT data */
+            RSA full = new RSA(256, RSA.DEFAULT_PUBLIC_EXPONENT);
+            BigInteger[] c = full.components();
+            Files.write(privateFile, Arrays.asList(c[0] + "", c[2] + "", c[3] + "", c[4] + "", c[5] + "", c[6] + "", c[7] + ""));
+            Files.write(publicFile, Arrays.asList(c[0] + "", c[1] + ""));
+            Files.write(legacyFile, Arrays.asList(c[0] + "", c[2] + ""));
+
+            RSA imported = BinaryKeyStore.importTextKeys(privateFile.toString(), publicFile.toString());
+            assertEquals(true, imported.hasCrtComponents());
+            assertEquals(Arrays.asList(c), Arrays.asList(imported.components()));
+
+            RSA legacy = BinaryKeyStore.importTextKeys(legacyFile.toString(), publicFile.toString());
+            assertEquals(false, legacy.hasCrtComponents());
+
+            Map<String, RSA> keys = new LinkedHashMap<String, RSA>();
+            keys.put("full", full);
+            keys.put("legacy", legacy);
+            keys.put("\u00e9t\u00e9", new RSA(128, RSA.DEFAULT_PUBLIC_EXPONENT));
+            BinaryKeyStore.write(file, keys);
+
+            BigInteger m = new BigInteger("1234567890");
+            try (BinaryKeyStore store = BinaryKeyStore.open(file)) {
+                assertEquals(3, store.size());
+                assertEquals(new ArrayList<String>(keys.keySet()), new ArrayList<String>(store.ids()));
+                assertEquals(null, store.get("missing"));
+
+                for (String id : keys.keySet()) {
+                    RSA loaded = store.get(id);
+                    assertEquals(Arrays.asList(keys.get(id).components()), Arrays.asList(loaded.components()));
+                    assertEquals(m, loaded.decrypt(loaded.encrypt(m, loaded.N, loaded.e)));
+                    assertEquals(true, loaded == store.get(id));
+                }
+            }
+
+            /* A file that isn't a store, and one whose index points past its end */
+            byte[] bytes = Files.readAllBytes(file);
+            byte[] outOfRange = bytes.clone();
+            ByteBuffer.wrap(outOfRange).putLong(12 + 2 + 4, bytes.length);
+
+            for (byte[] bad : new byte[][] { "not a key store".getBytes(StandardCharsets.UTF_8), outOfRange }) {
+                Files.write(file, bad);
+                boolean isTestPassed = false;
+                try {
+                    BinaryKeyStore.open(file).close();
+                }
+                catch (IOException err) {
+                    isTestPassed = true;
+                }
+                assertEquals(true, isTestPassed);
+            }
+        }
+        finally {
+            for (Path path : new Path[] { file, privateFile, publicFile, legacyFile })
+                Files.deleteIfExists(path);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testKeyRegistry() throws Exception {
+        KeyRegistry registry = new KeyRegistry();
+        RSA first = new RSA(128, RSA.DEFAULT_PUBLIC_EXPONENT);
+        RSA second = new RSA(128, RSA.DEFAULT_PUBLIC_EXPONENT);
+        registry.register("first", first);
+        registry.register("second", second);
+
+        /* Building the second key must not have touched the first */
+        BigInteger m = new BigInteger("1234567890");
+        assertEquals(m, first.decrypt(first.encrypt(m, first.N, first.e)));
+        assertEquals(m, registry.decrypt("first", registry.encrypt("first", m)));
+        assertEquals(m, registry.decrypt("second", registry.encrypt("second", m)));
+        assertEquals(true, registry.cache().hits() > 0);
+
+        /*
+         * A context built for the old key after a replacement was registered (as a lookup
+         * racing with register() would) must not be used with the new key
+         */
+        RSA replacement = new RSA(128, RSA.DEFAULT_PUBLIC_EXPONENT);
+        registry.register("first", replacement);
+        registry.cache().get("first", first);
+        assertEquals(m, registry.decrypt("first", replacement.encrypt(m, replacement.N, replacement.e)));
+        assertEquals(true, registry.context("first").key() == replacement);
+        assertEquals(2, registry.cache().size());
+
+        /* Contexts only go with their own key, and encrypting needs the public exponent */
+        boolean isTestPassed = false;
+        try {
+            first.decrypt(m, registry.context("second"));
+        }
+        catch (IllegalArgumentException err) {
+            isTestPassed = true;
+        }
+        assertEquals(true, isTestPassed);
+
+        BigInteger[] components = first.components();
+        components[1] = null;
+        RSA privateOnly = new RSA(components);
+        isTestPassed = false;
+        try {
+            privateOnly.encrypt(m, new KeyContext(privateOnly));
+        }
+        catch (IllegalStateException err) {
+            isTestPassed = true;
+        }
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testParallelKeyGenerator() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelKeyGenerator generator = new ParallelKeyGenerator(pool, 2);
+            RSA rsa = generator.generate(256);
+
+            BigInteger[] components = rsa.components();
+            assertEquals(256, components[3].bitLength());
+            assertEquals(256, components[4].bitLength());
+            assertEquals(false, components[3].equals(components[4]));
+            assertEquals(components[3].multiply(components[4]), rsa.N);
+            assertEquals(RSA.DEFAULT_PUBLIC_EXPONENT, rsa.e);
+
+            BigInteger m = new BigInteger("123456789012345678901234567890");
+            assertEquals(m, rsa.decrypt(rsa.encrypt(m, rsa.N, rsa.e)));
+
+            /* Bulk mode hands back distinct keys */
+            List<RSA> keys = generator.generate(128, RSA.DEFAULT_PUBLIC_EXPONENT, 3);
+            assertEquals(3, keys.size());
+            assertEquals(false, keys.get(0).N.equals(keys.get(1).N));
+            for (RSA key : keys)
+                assertEquals(m, key.decrypt(key.encrypt(m, key.N, key.e)));
+
+            /* Cancelling a search that can't finish that soon stops every worker */
+            CompletableFuture<RSA> future = generator.generateAsync(4096, RSA.DEFAULT_PUBLIC_EXPONENT, 2);
+            assertEquals(true, future.cancel(false));
+            assertEquals(true, pool.awaitQuiescence(30, TimeUnit.SECONDS));
+            assertEquals(0, pool.getActiveThreadCount());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRSAService() throws Exception {
+        KeyRegistry registry = new KeyRegistry();
+        RSA first = new RSA(BigInteger.probablePrime(128, new java.util.Random(71)),
+                BigInteger.probablePrime(128, new java.util.Random(73)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        RSA second = new RSA(BigInteger.probablePrime(128, new java.util.Random(79)),
+                BigInteger.probablePrime(128, new java.util.Random(83)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        registry.register("first", first);
+        registry.register("second", second);
+
+        /* Several threads at once, mixing keys and operations */
+        try (RSAService service = new RSAService(registry, 64, 8, 2)) {
+            List<Thread> threads = new ArrayList<Thread>();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                threads.add(new Thread(() -> {
+                    try {
+                        java.util.Random rand = new java.util.Random(seed);
+                        for (int i = 0; i < 50; i++) {
+                            String id = rand.nextBoolean() ? "first" : "second";
+                            RSA key = id.equals("first") ? first : second;
+                            BigInteger m = new BigInteger(200, rand);
+
+                            BigInteger c = service.encrypt(id, m).get();
+                            assertEquals(key.encrypt(m, key.N, key.e), c);
+                            assertEquals(m, service.decrypt(id, c).get());
+                        }
+                    }
+                    catch (Throwable err) {
+                        failures.add(err);
+                    }
+                }));
+            }
+
+            for (Thread thread : threads)
+                thread.start();
+            for (Thread thread : threads)
+                thread.join();
+
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(0, service.inFlight());
+
+            /* An unknown key fails its own request only */
+            boolean isTestPassed = false;
+            try {
+                service.encrypt("missing", BigInteger.ONE).get();
+            }
+            catch (ExecutionException err) {
+                isTestPassed = err.getCause() instanceof IllegalArgumentException;
+            }
+            assertEquals(true, isTestPassed);
+        }
+    }
+
+    @Test
+    public void testRSAService_backpressure() throws Exception {
+        RSA key = new RSA(BigInteger.probablePrime(128, new java.util.Random(89)),
+                BigInteger.probablePrime(128, new java.util.Random(97)), RSA.DEFAULT_PUBLIC_EXPONENT);
+
+        /* The first lookup of "slow" holds its batch up until the latch is released */
+        CountDownLatch release = new CountDownLatch(1);
+        KeyRegistry registry = new KeyRegistry(id -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+            }
+            return key;
+        }, KeyRegistry.DEFAULT_CACHE_BYTES);
+
+        RSAService service = new RSAService(registry, 2, 8, 1);
+        BigInteger m = new BigInteger("1234567890");
+        BigInteger c = key.encrypt(m, key.N, key.e);
+
+        CompletableFuture<BigInteger> held1 = service.trySubmit("slow", RSAService.Operation.ENCRYPT, m);
+        CompletableFuture<BigInteger> held2 = service.trySubmit("slow", RSAService.Operation.DECRYPT, c);
+        assertEquals(2, service.inFlight());
+
+        /* At capacity: trySubmit() fails fast, and submit() waits for room */
+        CompletableFuture<BigInteger> rejected = service.trySubmit("slow", RSAService.Operation.ENCRYPT, m);
+        assertEquals(true, rejected.isCompletedExceptionally());
+
+        CompletableFuture<CompletableFuture<BigInteger>> waiting = new CompletableFuture<CompletableFuture<BigInteger>>();
+        Thread blocked = new Thread(() -> {
+            try {
+                waiting.complete(service.submit("slow", RSAService.Operation.DECRYPT, c));
+            }
+            catch (Throwable err) {
+                waiting.completeExceptionally(err);
+            }
+        });
+        blocked.start();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (blocked.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(Thread.State.WAITING, blocked.getState());
+        assertEquals(false, waiting.isDone());
+
+        /* Once the held requests finish, the waiting one gets in */
+        release.countDown();
+        assertEquals(c, held1.get(10, TimeUnit.SECONDS));
+        assertEquals(m, held2.get(10, TimeUnit.SECONDS));
+        assertEquals(m, waiting.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+
+        /* A closed service takes nothing more */
+        service.close();
+        boolean isTestPassed = false;
+        try {
+            service.trySubmit("slow", RSAService.Operation.ENCRYPT, m);
+        }
+        catch (RejectedExecutionException err) {
+            isTestPassed = true;
+        }
+        assertEquals(true, isTestPassed);
+    }
+
+    @Test
+    public void testRSAServer() throws Exception {
+        RSA key = new RSA(BigInteger.probablePrime(256, new java.util.Random(101)),
+                BigInteger.probablePrime(256, new java.util.Random(103)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        KeyRegistry registry = new KeyRegistry();
+        registry.register("key", key);
+
+        try (RSAService service = new RSAService(registry, 16, 8, 1);
+             RSAServer server = new RSAServer(service, 0)) {
+            Thread serving = new Thread(() -> {
+                try {
+                    server.serve();
+                }
+                catch (IOException err) {
+                    /* Closed */
+                }
+            });
+            serving.setDaemon(true);
+            serving.start();
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                BigInteger m = new BigInteger("123456789abcdef", 16);
+
+                out.println("ENC key " + m.toString(16));
+                String encrypted = in.readLine();
+                assertEquals(true, encrypted.startsWith("OK "));
+                BigInteger c = new BigInteger(encrypted.substring(3), 16);
+                assertEquals(key.encrypt(m, key.N, key.e), c);
+
+                out.println("DEC key " + c.toString(16));
+                assertEquals("OK " + m.toString(16), in.readLine());
+
+                /* Bad requests get an error line, and the connection stays usable */
+                out.println("ENC missing 1");
+                assertEquals(true, in.readLine().startsWith("ERR "));
+                out.println("ENC key zz");
+                assertEquals("ERR not a hexadecimal number", in.readLine());
+                out.println("SIGN key 1");
+                assertEquals(true, in.readLine().startsWith("ERR "));
+                out.println("DEC key " + c.toString(16));
+                assertEquals("OK " + m.toString(16), in.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testPrimePool() throws Exception {
+        PrimePool pool = new PrimePool(4, 2, RSA.DEFAULT_PUBLIC_EXPONENT, 128);
+
+        /* Give the background threads a chance to fill the pool */
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.depth(128) < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        RSA rsa = new RSA(pool, 128);
+        BigInteger m = new BigInteger("1234567890");
+        assertEquals(m, rsa.decrypt(rsa.encrypt(m, rsa.N, rsa.e)));
+        assertEquals(2, pool.hits());
+
+        /* Sizes the pool doesn't keep fall back to a search on the calling thread */
+        RSA fallback = new RSA(pool, 96);
+        assertEquals(m, fallback.decrypt(fallback.encrypt(m, fallback.N, fallback.e)));
+        assertEquals(2, pool.misses());
+        pool.close();
+    }
+
+    @Test
+    public void testMultiPrime() throws Exception {
+        RSA rsa = RSA.multiPrime(768, 3, RSA.DEFAULT_PUBLIC_EXPONENT);
+        assertEquals(768, rsa.N.bitLength());
+        assertEquals(3, rsa.primeCount());
+
+        BigInteger m = new BigInteger("123456789012345678901234567890");
+        BigInteger c = rsa.encrypt(m, rsa.N, rsa.e);
+        assertEquals(m, rsa.decrypt(c));
+        assertEquals(m, rsa.decrypt(c, new KeyContext(rsa)));
+
+        /* The extra primes have to survive a trip through the key store */
+        Path file = Files.createTempFile("multiprime", ".keys");
+        try {
+            BinaryKeyStore.write(file, Collections.singletonMap("key", rsa));
+            try (BinaryKeyStore store = BinaryKeyStore.open(file)) {
+                RSA loaded = store.get("key");
+                assertEquals(3, loaded.primeCount());
+                assertEquals(m, loaded.decrypt(c));
+            }
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSignatures() throws Exception {
+        RSA rsa = new RSA(BigInteger.probablePrime(256, new java.util.Random(17)),
+                BigInteger.probablePrime(256, new java.util.Random(29)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        BatchVerifier verifier = new BatchVerifier(rsa.N, rsa.e);
+
+        List<byte[]> messages = new ArrayList<byte[]>();
+        List<BigInteger> signatures = new ArrayList<BigInteger>();
+        for (int i = 0; i < 50; i++) {
+            byte[] message = ("message " + i).getBytes(StandardCharsets.UTF_8);
+            messages.add(message);
+            signatures.add(rsa.sign(message));
+        }
+
+        assertEquals(true, rsa.verify(messages.get(0), signatures.get(0), rsa.N, rsa.e));
+        assertEquals(false, rsa.verify(messages.get(1), signatures.get(0), rsa.N, rsa.e));
+        assertEquals(true, verifier.allValid(messages, signatures));
+
+        /* A tampered signature fails, and only that one */
+        signatures.set(7, signatures.get(7).add(BigInteger.ONE));
+        boolean[] valid = verifier.verifyAll(messages, signatures);
+        for (int i = 0; i < valid.length; i++)
+            assertEquals(i != 7, valid[i]);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        Metrics.install(metrics);
+        try {
+            RSA rsa = new RSA(256, RSA.DEFAULT_PUBLIC_EXPONENT);
+            KeyContext context = new KeyContext(rsa);
+            BigInteger m = new BigInteger("1234567890");
+
+            BigInteger c = rsa.encrypt(m, context);
+            assertEquals(m, rsa.decrypt(c, context));
+            assertEquals(m, rsa.decryptAll(new BigInteger[] { c, c }, context)[1]);
+
+            assertEquals(1, metrics.keyGeneration().count());
+            assertEquals(true, metrics.keyGenerationAttempts() >= 1);
+            assertEquals(true, metrics.primeCandidates() > metrics.primeRejections());
+            assertEquals(1, metrics.encrypt().count());
+            assertEquals(3, metrics.decrypt().count());
+            assertEquals(true, metrics.modexpCount() > 0);
+        }
+        finally {
+            Metrics.install(MetricsRegistry.NOOP);
+        }
+
+        assertEquals(false, Metrics.enabled());
+    }
+
+    @Test
+    public void testHybridCipher() throws Exception {
+        RSA rsa = new RSA(BigInteger.probablePrime(256, new java.util.Random(41)),
+                BigInteger.probablePrime(256, new java.util.Random(43)), RSA.DEFAULT_PUBLIC_EXPONENT);
+
+        byte[] data = new byte[10000];
+        new java.util.Random(7).nextBytes(data);
+
+        ByteBuffer sealed = rsa.hybridEncrypt(ByteBuffer.wrap(data), rsa.N, rsa.e);
+        assertArrayEquals(data, rsa.hybridDecrypt(sealed.duplicate()).array());
+        assertEquals(0, rsa.hybridDecrypt(rsa.hybridEncrypt(ByteBuffer.allocate(0), rsa.N, rsa.e)).remaining());
+
+        /* Streams cut into many small segments, including one ending exactly on a boundary */
+        for (int length : new int[] { 0, 1, 999, 1000, 1001, 10000 }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HybridCipher.encrypt(new ByteArrayInputStream(data, 0, length), out, rsa.N, m -> rsa.encrypt(m, rsa.N, rsa.e), 1000);
+            byte[] ciphertext = out.toByteArray();
+            assertEquals(HybridCipher.encryptedSize(length, rsa.N, 1000), ciphertext.length);
+
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            HybridCipher.decrypt(new ByteArrayInputStream(ciphertext), plain, rsa.N, rsa::decrypt);
+            assertArrayEquals(Arrays.copyOf(data, length), plain.toByteArray());
+
+            /* The same bytes read back through the buffer API */
+            assertArrayEquals(Arrays.copyOf(data, length), HybridCipher.decrypt(ByteBuffer.wrap(ciphertext), rsa.N, rsa::decrypt).array());
+        }
+
+        /* A flipped bit, or a stream cut off at a segment boundary, is caught */
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HybridCipher.encrypt(new ByteArrayInputStream(data), out, rsa.N, m -> rsa.encrypt(m, rsa.N, rsa.e), 1000);
+        byte[] ciphertext = out.toByteArray();
+
+        byte[] tampered = ciphertext.clone();
+        tampered[tampered.length - 2000] ^= 1;
+        byte[] truncated = Arrays.copyOf(ciphertext, ciphertext.length - 1016);
+
+        for (byte[] bad : new byte[][] { tampered, truncated }) {
+            boolean isTestPassed = false;
+            try {
+                HybridCipher.decrypt(new ByteArrayInputStream(bad), new ByteArrayOutputStream(), rsa.N, rsa::decrypt);
+            }
+            catch (IOException err) {
+                isTestPassed = true;
+            }
+            assertEquals(true, isTestPassed);
+        }
+    }
+
+    @Test
+    public void testBlinding() throws Exception {
+        RSA rsa = new RSA(BigInteger.probablePrime(256, new java.util.Random(51)),
+                BigInteger.probablePrime(256, new java.util.Random(53)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        KeyContext context = new KeyContext(rsa);
+
+        /* A small pool whose pairs wear out quickly, so every path gets exercised */
+        try (BlindingPool blinding = new BlindingPool(rsa, 4, 5)) {
+            java.util.Random rand = new java.util.Random(3);
+            for (int i = 0; i < 100; i++) {
+                BigInteger m = new BigInteger(500, rand);
+                BigInteger c = rsa.encrypt(m, context);
+                assertEquals(m, rsa.decrypt(c, context, blinding));
+            }
+
+            assertEquals(100, blinding.hits() + blinding.misses());
+            assertEquals(true, blinding.size() <= blinding.capacity());
+        }
+    }
+
+    @Test
+    public void testKeyContext_calibrated() {
+        RSA rsa = new RSA(BigInteger.probablePrime(256, new java.util.Random(57)),
+                BigInteger.probablePrime(256, new java.util.Random(59)), RSA.DEFAULT_PUBLIC_EXPONENT);
+        BigInteger m = new BigInteger(500, new java.util.Random(7));
+        BigInteger c = rsa.encrypt(m, new KeyContext(rsa));
+
+        /* A profile with a single size stands for every modulus size */
+        CalibrationProfile montgomery = new CalibrationProfile(Collections.singletonMap(256,
+                new CalibrationProfile.Choice(CalibrationProfile.Engine.MONTGOMERY, 3, 0)));
+        CalibrationProfile jdk = new CalibrationProfile(Collections.singletonMap(256,
+                new CalibrationProfile.Choice(CalibrationProfile.Engine.JDK, 3, 0)));
+
+        try {
+            Calibration.install(montgomery);
+            KeyContext context = new KeyContext(rsa);
+            assertEquals(true, context.isCurrent());
+
+            /* The full-length CRT exponents take the calibrated width, the short e keeps its own */
+            assertEquals(3, context.dP().plan().window());
+            assertEquals(3, context.dQ().plan().window());
+            assertEquals(ExponentPlan.of(RSA.DEFAULT_PUBLIC_EXPONENT).window(), context.e().plan().window());
+            assertEquals(CalibrationProfile.Engine.MONTGOMERY, context.dP().engine());
+            assertEquals(m, rsa.decrypt(c, context));
+            assertEquals(c, rsa.encrypt(m, context));
+
+            /* Once another profile is installed, the key's own context is rebuilt under it */
+            KeyContext own = rsa.context();
+            Calibration.install(jdk);
+            assertEquals(false, context.isCurrent());
+            assertEquals(false, rsa.context() == own);
+            assertEquals(true, rsa.context().isCurrent());
+            assertEquals(m, rsa.decrypt(c));
+
+            KeyContext jdkContext = new KeyContext(rsa);
+            assertEquals(CalibrationProfile.Engine.JDK, jdkContext.dP().engine());
+            assertEquals(CalibrationProfile.Engine.JDK, jdkContext.e().engine());
+            assertEquals(m, rsa.decrypt(c, jdkContext));
+            assertEquals(c, rsa.encrypt(m, jdkContext));
+            assertEquals(Arrays.asList(m, m), Arrays.asList(rsa.decryptAll(new BigInteger[] { c, c }, jdkContext)));
+
+            /* A cached context made under the old profile counts as a miss */
+            ContextCache cache = new ContextCache(1 << 20);
+            Calibration.install(CalibrationProfile.EMPTY);
+            KeyContext cached = cache.get("k", rsa);
+            Calibration.install(jdk);
+            KeyContext rebuilt = cache.get("k", rsa);
+            assertEquals(false, rebuilt == cached);
+            assertEquals(true, rebuilt.isCurrent());
+        }
+        finally {
+            Calibration.install(CalibrationProfile.EMPTY);
+        }
+    }
+}
+
@@ -0,0 +1,85 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class implements the PKCS #1 v1.5 signature encoding (EMSA-PKCS1-v1_5,
+ *              RFC 8017 section 9.2) with SHA-256. A message is hashed, the hash is wrapped in
+ *              its DER DigestInfo, and the result is padded out to the size of the modulus:
+ *
+ *                EM = 0x00 || 0x01 || 0xFF ... 0xFF || 0x00 || DigestInfo
+ *
+ *              The encoding is deterministic, so verifying is just re-encoding the message
+ *              and comparing.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class SignatureCodec {
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /* DER encoding of DigestInfo { sha256, NULL } up to (and including) the digest's length */
+    private static final byte[] DIGEST_INFO_PREFIX = {
+        0x30, 0x31, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01, 0x05, 0x00, 0x04, 0x20
+    };
+
+    /* Length of a SHA-256 digest in bytes */
+    private static final int DIGEST_LENGTH = 32;
+
+    /* MessageDigest isn't thread safe, so every thread hashes with its own */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException err) {
+            /* Every JDK is required to ship SHA-256 */
+            throw new IllegalStateException(err);
+        }
+    });
+
+    /* digest()
+     *
+     * ~ Returns the SHA-256 hash of message
+     */
+    public static byte[] digest(byte[] message) {
+        return DIGEST.get().digest(message);
+    }
+
+    /* encode()
+     *
+     * ~ Hashes message and returns its encoding for a signature under modulus N, as the
+     *   integer that gets raised to d (when signing) or compared against s^e (when verifying)
+     */
+    public static BigInteger encode(byte[] message, BigInteger N) {
+        return encodeDigest(digest(message), N);
+    }
+
+    /* encodeDigest()
+     *
+     * ~ Same as above, for a message that has already been hashed with SHA-256
+     */
+    public static BigInteger encodeDigest(byte[] digest, BigInteger N) {
+        if (digest.length != DIGEST_LENGTH)
+            throw new IllegalArgumentException("Expected a " + DIGEST_LENGTH + " byte " + DIGEST_ALGORITHM + " digest");
+
+        int k = (N.bitLength() + 7) / 8;
+        int tLength = DIGEST_INFO_PREFIX.length + DIGEST_LENGTH;
+
+        /* RFC 8017 asks for at least eight bytes of 0xFF padding */
+        if (k < tLength + 11)
+            throw new IllegalArgumentException("Modulus is too small for a " + DIGEST_ALGORITHM + " signature");
+
+        /* The leading 0x00 is left off, since it would only be dropped by the BigInteger */
+        byte[] em = new byte[k - 1];
+        em[0] = 0x01;
+        for (int i = 1; i < k - tLength - 2; i++)
+            em[i] = (byte) 0xFF;
+
+        System.arraycopy(DIGEST_INFO_PREFIX, 0, em, k - tLength - 1, DIGEST_INFO_PREFIX.length);
+        System.arraycopy(digest, 0, em, k - DIGEST_LENGTH - 1, DIGEST_LENGTH);
+
+        return new BigInteger(1, em);
+    }
+}
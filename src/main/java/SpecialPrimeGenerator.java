@@ -0,0 +1,320 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class generates primes with extra structure, racing several workers on
+ *              a fork-join pool like ParallelKeyGenerator does:
+ *
+ *                - safe primes p = 2q + 1 with q prime. q is walked through an incremental
+ *                  sieve that throws out a candidate when either q or 2q + 1 has a small
+ *                  factor (see PrimeSieve.survivesDoubled()), then q gets a base-2 Fermat
+ *                  test before p does, and only a q that passes both gets the full test.
+ *                  p needs no test of its own after that: with q prime and q > sqrt(p),
+ *                  2^(p-1) = 1 (mod p) proves p prime (Pocklington).
+ *
+ *                - strong primes by Gordon's algorithm: p - 1 has a large prime factor r,
+ *                  p + 1 a large prime factor s, and r - 1 a large prime factor t.
+ *
+ *              Long searches can be watched and bounded with a Progress hook, which is told
+ *              how many candidates have got past the sieve so far and can call the search off.
+ *              As the primes are meant for key material, every worker draws its candidates
+ *              from a SecureRandom of its own.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+public class SpecialPrimeGenerator {
+    /*
+     * Called as the search goes, with the number of candidates tested so far (across every
+     * worker, so possibly from several threads at once). Returning false stops the search.
+     */
+    public interface Progress {
+        boolean update(long tested);
+    }
+
+    /* A Progress that never stops the search */
+    public static final Progress UNBOUNDED = tested -> true;
+
+    /* Smallest size strongPrime() accepts, so that s, t & r all come out comfortably large */
+    public static final int MIN_STRONG_BITS = 128;
+
+    /* Safe primes up to this size are found by plain testing, as they're below the sieve's reach */
+    private static final int SIEVE_MIN_BITS = 32;
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    /* One worker's search: the prime, or null if cancelled first */
+    private interface Search {
+        BigInteger find(Random rand, Runnable tested, BooleanSupplier cancelled);
+    }
+
+    /* Pool the searches are run on */
+    private final ForkJoinPool pool;
+
+    /* Number of workers racing on each search */
+    private final int workers;
+
+    /*
+     *  SpecialPrimeGenerator()
+     *
+     *  ~ Uses the common fork-join pool, with one worker per core.
+     */
+    public SpecialPrimeGenerator() {
+        this(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /*
+     *  SpecialPrimeGenerator(ForkJoinPool, int)
+     *
+     *  ~ Runs the searches on the given pool, with the given number of workers each.
+     */
+    public SpecialPrimeGenerator(ForkJoinPool pool, int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1");
+
+        this.pool = pool;
+        this.workers = workers;
+    }
+
+    /* safePrime()
+     *
+     * ~ Returns an n-bit safe prime p = 2q + 1, blocking until one is found
+     */
+    public BigInteger safePrime(int n) {
+        return safePrime(n, UNBOUNDED);
+    }
+
+    /* safePrime()
+     *
+     * ~ Same as above, reporting to progress. Throws a CancellationException if progress
+     *   stops the search.
+     */
+    public BigInteger safePrime(int n, Progress progress) {
+        return safePrimeAsync(n, progress).join();
+    }
+
+    /* safePrimeAsync()
+     *
+     * ~ Starts a search for an n-bit safe prime. Cancelling the future stops the workers.
+     */
+    public CompletableFuture<BigInteger> safePrimeAsync(final int n, Progress progress) {
+        if (n < 3)
+            throw new IllegalArgumentException("Safe primes need at least 3 bits");
+
+        return race((rand, tested, cancelled) -> searchSafe(n, rand, tested, cancelled), progress);
+    }
+
+    /* strongPrime()
+     *
+     * ~ Returns an n-bit strong prime, blocking until one is found
+     */
+    public BigInteger strongPrime(int n) {
+        return strongPrime(n, UNBOUNDED);
+    }
+
+    /* strongPrime()
+     *
+     * ~ Same as above, reporting to progress. Throws a CancellationException if progress
+     *   stops the search.
+     */
+    public BigInteger strongPrime(int n, Progress progress) {
+        return strongPrimeAsync(n, progress).join();
+    }
+
+    /* strongPrimeAsync()
+     *
+     * ~ Starts a search for an n-bit strong prime. Cancelling the future stops the workers.
+     */
+    public CompletableFuture<BigInteger> strongPrimeAsync(final int n, Progress progress) {
+        if (n < MIN_STRONG_BITS)
+            throw new IllegalArgumentException("Strong primes need at least " + MIN_STRONG_BITS + " bits");
+
+        return race((rand, tested, cancelled) -> searchStrong(n, rand, tested, cancelled), progress);
+    }
+
+    /* race()
+     *
+     * ~ Runs search on every worker. The first prime found completes the future; every other
+     *   worker sees that and gives up. progress is told after each candidate tested.
+     */
+    private CompletableFuture<BigInteger> race(final Search search, final Progress progress) {
+        final CompletableFuture<BigInteger> result = new CompletableFuture<BigInteger>();
+        final AtomicLong count = new AtomicLong();
+
+        final Runnable tested = () -> {
+            if (!progress.update(count.incrementAndGet()))
+                result.cancel(false);
+        };
+
+        for (int i = 0; i < workers; i++) {
+            pool.execute(() -> {
+                try {
+                    BigInteger prime = search.find(new SecureRandom(), tested, result::isDone);
+                    if (prime != null)
+                        result.complete(prime);
+                }
+                catch (RuntimeException err) {
+                    result.completeExceptionally(err);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /* searchSafe()
+     *
+     * ~ Walks q = 5 (mod 6) upwards from random (n-1)-bit starting points until q and 2q + 1
+     *   are both prime. (q = 1 mod 3 would make 2q + 1 a multiple of 3.)
+     */
+    private static BigInteger searchSafe(int n, Random rand, Runnable tested, BooleanSupplier cancelled) {
+        if (n <= SIEVE_MIN_BITS)
+            return searchSmallSafe(n, rand, tested, cancelled);
+
+        BigInteger limit = BigInteger.ONE.shiftLeft(n - 1);
+        int rounds = ModularArithmetic.millerRabinRounds(n - 1);
+
+        while (!cancelled.getAsBoolean()) {
+            BigInteger start = new BigInteger(n - 1, rand).setBit(n - 2);
+            start = start.add(BigInteger.valueOf(5 - start.mod(BigInteger.valueOf(6)).intValue()));
+
+            PrimeSieve sieve = new PrimeSieve(start);
+            long room = limit.subtract(start).min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+
+            while (sieve.offset() < room && !cancelled.getAsBoolean()) {
+                if (sieve.survivesDoubled()) {
+                    tested.run();
+
+                    BigInteger q = sieve.candidate();
+                    BigInteger p = q.shiftLeft(1).setBit(0);
+
+                    /* q's context is shared by its Fermat test and Miller-Rabin */
+                    Montgomery qContext = new Montgomery(q);
+                    boolean prime = fermat(qContext) && fermat(new Montgomery(p))
+                            && ModularArithmetic.passesMillerRabin(qContext, rounds) && ModularArithmetic.passesLucas(q);
+
+                    Metrics.primeCandidate(n, prime);
+                    if (prime)
+                        return p;
+                }
+
+                sieve.advance(6);
+            }
+        }
+
+        return null;
+    }
+
+    /* Safe primes too small for the sieve: random q, tested directly */
+    private static BigInteger searchSmallSafe(int n, Random rand, Runnable tested, BooleanSupplier cancelled) {
+        while (!cancelled.getAsBoolean()) {
+            BigInteger q = new BigInteger(n - 1, rand).setBit(n - 2);
+            BigInteger p = q.shiftLeft(1).setBit(0);
+            tested.run();
+
+            boolean prime = q.isProbablePrime(100) && p.isProbablePrime(100);
+
+            Metrics.primeCandidate(n, prime);
+            if (prime)
+                return p;
+        }
+
+        return null;
+    }
+
+    /* searchStrong()
+     *
+     * ~ Gordon's algorithm:
+     *
+     *     s, t = random primes of about n/2 bits
+     *     r    = the first prime 2it + 1, from a random i
+     *     p0   = 2 (s^-1 mod r) s - 1          (so p0 = 1 mod r and p0 = -1 mod s)
+     *     p    = the first prime p0 + 2jrs, from the j that makes it n bits long
+     *
+     *   s and t are a few words short of n/2 bits so that 2rs leaves plenty of j to search.
+     */
+    private static BigInteger searchStrong(int n, Random rand, Runnable tested, BooleanSupplier cancelled) {
+        int sBits = n / 2 - 16;
+        int tBits = n / 2 - 32;
+
+        while (!cancelled.getAsBoolean()) {
+            BigInteger s = ModularArithmetic.genPrime(sBits, rand, cancelled);
+            BigInteger t = ModularArithmetic.genPrime(tBits, rand, cancelled);
+            if (s == null || t == null)
+                return null;
+
+            /* i is picked so that r comes out about as long as s */
+            BigInteger i = new BigInteger(sBits - tBits - 1, rand).setBit(sBits - tBits - 2);
+            BigInteger r = walk(t.multiply(i).shiftLeft(1).setBit(0), t.shiftLeft(1), sBits + 8, n, tested, cancelled);
+            if (r == null)
+                continue;
+
+            BigInteger p0 = ModularArithmetic.modInverse(s, r).multiply(s).shiftLeft(1).subtract(BigInteger.ONE);
+            BigInteger step = r.multiply(s).shiftLeft(1);
+
+            /* First p0 + 2jrs at or above a random n-bit starting point */
+            BigInteger base = new BigInteger(n, rand).setBit(n - 1);
+            BigInteger j = base.subtract(p0).add(step).subtract(BigInteger.ONE).divide(step).max(BigInteger.ZERO);
+
+            BigInteger p = walk(p0.add(step.multiply(j)), step, n, n, tested, cancelled);
+            if (p != null)
+                return p;
+        }
+
+        return null;
+    }
+
+    /* walk()
+     *
+     * ~ Returns the first probable prime in start, start + step, start + 2 step, ... that is
+     *   at most maxBits long, or null if the walk runs past that (or is cancelled). Candidates
+     *   are sieved like PrimeSieve does, with the residues of step added on at every move.
+     */
+    private static BigInteger walk(BigInteger start, BigInteger step, int maxBits, int reportBits, Runnable tested, BooleanSupplier cancelled) {
+        int[] residues = PrimeSieve.residues(start);
+        int[] stepResidues = PrimeSieve.residues(step);
+        int[] primes = PrimeSieve.SMALL_PRIMES;
+        int rounds = ModularArithmetic.millerRabinRounds(maxBits);
+
+        for (BigInteger candidate = start; candidate.bitLength() <= maxBits && !cancelled.getAsBoolean(); candidate = candidate.add(step)) {
+            boolean survives = true;
+            for (int residue : residues) {
+                if (residue == 0) {
+                    survives = false;
+                    break;
+                }
+            }
+
+            if (survives) {
+                tested.run();
+
+                Montgomery context = new Montgomery(candidate);
+                boolean prime = fermat(context)
+                        && ModularArithmetic.passesMillerRabin(context, rounds) && ModularArithmetic.passesLucas(candidate);
+
+                Metrics.primeCandidate(reportBits, prime);
+                if (prime)
+                    return candidate;
+            }
+
+            for (int k = 0; k < residues.length; k++) {
+                int residue = residues[k] + stepResidues[k];
+                residues[k] = residue >= primes[k] ? residue - primes[k] : residue;
+            }
+        }
+
+        return null;
+    }
+
+    /* Base-2 Fermat test on an odd x > 3, given its context: 2^(x-1) = 1 (mod x) */
+    private static boolean fermat(Montgomery context) {
+        return context.modexp(TWO, context.getModulus().subtract(BigInteger.ONE)).equals(BigInteger.ONE);
+    }
+}
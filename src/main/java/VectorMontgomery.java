@@ -0,0 +1,242 @@
+/*
+ * Author: Grant McGovern
+ *
+ * Description: This class is the SIMD engine behind MontgomeryBatch. It runs the same CIOS
+ *              Montgomery multiplication as Montgomery, but on one value per vector lane: a
+ *              batch of operands is stored lane-interleaved, so limb j of lane l sits at index
+ *              j * lanes + l, and every step of the limb loops is a single vector operation
+ *              across the whole batch. Since all lanes share the modulus and the exponent,
+ *              the control flow is the same for every lane; only the final conditional
+ *              subtraction differs, and that is done with a blend.
+ *
+ *              Limbs are 31 bits wide, held in 64-bit lanes, so a limb product plus the
+ *              running sum and carry always fits in a signed long.
+ *
+ *              Needs --add-modules jdk.incubator.vector, both to compile and to run. Use it
+ *              through MontgomeryBatch, which falls back to the scalar engine without it.
+ *
+ */
+
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorMontgomery implements MontgomeryBatch.Engine {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    /* Number of values worked on at once */
+    private static final int LANES = SPECIES.length();
+
+    /* Bits per limb, and the mask for one limb */
+    private static final int BITS = 31;
+    private static final long MASK = (1L << BITS) - 1;
+
+    public int lanes() {
+        return LANES;
+    }
+
+    /* modexp()
+     *
+     * ~ Returns bases[i]^exponent mod N for every i, following plan, LANES values at a time.
+     *   The last group is padded out with zeros, whose results are dropped.
+     */
+    public BigInteger[] modexp(BigInteger[] bases, ExponentPlan plan, BigInteger N) {
+        if (N.signum() <= 0 || !N.testBit(0) || N.equals(BigInteger.ONE))
+            throw new ArithmeticException("Montgomery modulus must be odd and greater than 1");
+
+        Batch batch = new Batch(N, plan.tableSize());
+        BigInteger[] results = new BigInteger[bases.length];
+
+        for (int from = 0; from < bases.length; from += LANES)
+            batch.modexp(bases, from, Math.min(LANES, bases.length - from), plan, results);
+
+        return results;
+    }
+
+    /* The per-modulus constants and working buffers for one call to modexp() */
+    private static final class Batch {
+        final BigInteger N;
+        final int len;
+        final long[] n;
+        final long n0inv;
+
+        /* R mod N, i.e. 1 in Montgomery form, and R = 2^(31 * len) itself */
+        final BigInteger rModN;
+        final int rBits;
+
+        /* Lane-interleaved buffers, len * LANES longs each (t has two extra limbs) */
+        final long[] acc;
+        final long[] square;
+        final long[] one;
+        final long[][] powers;
+        final long[] t;
+
+        Batch(BigInteger N, int tableSize) {
+            this.N = N;
+            this.len = (N.bitLength() + BITS - 1) / BITS;
+            this.rBits = BITS * len;
+            this.n = limbs(N, len);
+            this.n0inv = BigInteger.ONE.shiftLeft(BITS).subtract(N.modInverse(BigInteger.ONE.shiftLeft(BITS))).longValue();
+            this.rModN = BigInteger.ONE.shiftLeft(rBits).mod(N);
+
+            int size = len * LANES;
+            this.acc = new long[size];
+            this.square = new long[size];
+            this.t = new long[size + 2 * LANES];
+
+            /* Plain 1 in every lane, for taking results back out of Montgomery form */
+            this.one = new long[size];
+            Arrays.fill(one, 0, LANES, 1L);
+
+            this.powers = new long[tableSize][size];
+        }
+
+        /* Raises bases[from .. from + count - 1] to plan's exponent, writing into results */
+        void modexp(BigInteger[] bases, int from, int count, ExponentPlan plan, BigInteger[] results) {
+            /* Move the values into Montgomery form: x * R mod N */
+            for (int lane = 0; lane < LANES; lane++) {
+                BigInteger x = lane < count ? bases[from + lane].mod(N).shiftLeft(rBits).mod(N) : BigInteger.ZERO;
+                store(x, powers[0], lane);
+                store(rModN, acc, lane);
+            }
+
+            if (plan.first >= 0) {
+                /* powers[i] holds x^(2i + 1) in every lane */
+                if (powers.length > 1) {
+                    multiply(powers[0], powers[0], square);
+                    for (int i = 1; i < powers.length; i++)
+                        multiply(powers[i - 1], square, powers[i]);
+                }
+
+                /* Same steps as Montgomery.modexp(a, plan) */
+                System.arraycopy(powers[plan.first], 0, acc, 0, acc.length);
+
+                for (int k = 0; k < plan.digits.length; k++) {
+                    for (int j = plan.squarings[k]; j > 0; j--)
+                        multiply(acc, acc, acc);
+                    multiply(acc, powers[plan.digits[k]], acc);
+                }
+
+                for (int j = plan.trailing; j > 0; j--)
+                    multiply(acc, acc, acc);
+            }
+
+            /* Out of Montgomery form: acc * 1 * R^-1 */
+            multiply(acc, one, acc);
+
+            for (int lane = 0; lane < count; lane++)
+                results[from + lane] = load(acc, lane);
+        }
+
+        /* multiply()
+         *
+         * ~ out = a * b * R^-1 mod N in every lane (CIOS). out may alias a or b.
+         */
+        void multiply(long[] a, long[] b, long[] out) {
+            Arrays.fill(t, 0L);
+
+            LongVector zero = LongVector.zero(SPECIES);
+
+            for (int i = 0; i < len; i++) {
+                LongVector ai = LongVector.fromArray(SPECIES, a, i * LANES);
+                LongVector carry = zero;
+
+                /* t += a[i] * b */
+                for (int j = 0; j < len; j++) {
+                    int at = j * LANES;
+                    LongVector s = LongVector.fromArray(SPECIES, t, at)
+                            .add(ai.mul(LongVector.fromArray(SPECIES, b, at)))
+                            .add(carry);
+                    s.and(MASK).intoArray(t, at);
+                    carry = s.lanewise(VectorOperators.LSHR, BITS);
+                }
+
+                LongVector s = LongVector.fromArray(SPECIES, t, len * LANES).add(carry);
+                s.and(MASK).intoArray(t, len * LANES);
+                s.lanewise(VectorOperators.LSHR, BITS).intoArray(t, (len + 1) * LANES);
+
+                /* One word of reduction: add the multiple of N that clears t[0], shift down a limb */
+                LongVector t0 = LongVector.fromArray(SPECIES, t, 0);
+                LongVector m = t0.mul(n0inv).and(MASK);
+
+                carry = t0.add(m.mul(n[0])).lanewise(VectorOperators.LSHR, BITS);
+
+                for (int j = 1; j < len; j++) {
+                    s = LongVector.fromArray(SPECIES, t, j * LANES)
+                            .add(m.mul(n[j]))
+                            .add(carry);
+                    s.and(MASK).intoArray(t, (j - 1) * LANES);
+                    carry = s.lanewise(VectorOperators.LSHR, BITS);
+                }
+
+                s = LongVector.fromArray(SPECIES, t, len * LANES).add(carry);
+                s.and(MASK).intoArray(t, (len - 1) * LANES);
+                LongVector.fromArray(SPECIES, t, (len + 1) * LANES)
+                        .add(s.lanewise(VectorOperators.LSHR, BITS))
+                        .intoArray(t, len * LANES);
+                zero.intoArray(t, (len + 1) * LANES);
+            }
+
+            finish(out);
+        }
+
+        /* Copies t into out, subtracting N in the lanes where t >= N */
+        private void finish(long[] out) {
+            LongVector zero = LongVector.zero(SPECIES);
+
+            /* First pass: the borrow out of t - N tells us which lanes are >= N */
+            LongVector borrow = zero;
+            for (int j = 0; j < len; j++) {
+                LongVector s = LongVector.fromArray(SPECIES, t, j * LANES).sub(n[j]).sub(borrow);
+                borrow = s.lanewise(VectorOperators.LSHR, 63);
+            }
+
+            VectorMask<Long> subtract = LongVector.fromArray(SPECIES, t, len * LANES).compare(VectorOperators.NE, 0)
+                    .or(borrow.compare(VectorOperators.EQ, 0));
+
+            /* Second pass: redo the subtraction, keeping it only in those lanes */
+            borrow = zero;
+            for (int j = 0; j < len; j++) {
+                LongVector tj = LongVector.fromArray(SPECIES, t, j * LANES);
+                LongVector s = tj.sub(n[j]).sub(borrow);
+                borrow = s.lanewise(VectorOperators.LSHR, 63);
+                tj.blend(s.and(MASK), subtract).intoArray(out, j * LANES);
+            }
+        }
+
+        /* Writes x into one lane of a lane-interleaved buffer */
+        void store(BigInteger x, long[] buffer, int lane) {
+            for (int j = 0; j < len; j++)
+                buffer[j * LANES + lane] = x.shiftRight(j * BITS).longValue() & MASK;
+        }
+
+        /* Reads one lane of a lane-interleaved buffer back into a BigInteger */
+        BigInteger load(long[] buffer, int lane) {
+            long[] limbs = new long[len];
+            for (int j = 0; j < len; j++)
+                limbs[j] = buffer[j * LANES + lane];
+            return fromLimbs(limbs);
+        }
+    }
+
+    /* Splits x into len little-endian 31-bit limbs */
+    private static long[] limbs(BigInteger x, int len) {
+        long[] limbs = new long[len];
+        for (int j = 0; j < len; j++)
+            limbs[j] = x.shiftRight(j * BITS).longValue() & MASK;
+        return limbs;
+    }
+
+    /* Reassembles little-endian 31-bit limbs into a BigInteger */
+    private static BigInteger fromLimbs(long[] limbs) {
+        BigInteger x = BigInteger.ZERO;
+        for (int j = limbs.length - 1; j >= 0; j--)
+            x = x.shiftLeft(BITS).or(BigInteger.valueOf(limbs[j]));
+        return x;
+    }
+}